@@ -0,0 +1,74 @@
+package insomnia.demo.bench;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.bson.BsonDocument;
+import org.bson.RawBsonDocument;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import insomnia.demo.data.IDataAccess;
+import insomnia.implem.kv.data.KVLabel;
+
+/**
+ * Throughput of the decoding of records to trees (bson2Tree): from the raw bytes as the records are read, and from decoded BsonDocuments.
+ * The allocation rate is given by the gc profiler: {@code java -jar target/benchmarks.jar DecodingBench -prof gc}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DecodingBench
+{
+	private static final int NB_DOCUMENTS = 1_000;
+
+	@Param({ "3", "6" })
+	public int depth;
+
+	@Param({ "2", "4" })
+	public int fanout;
+
+	private IDataAccess<Object, KVLabel> dataAccess;
+
+	private List<BsonDocument> documents;
+
+	private List<RawBsonDocument> raws;
+
+	@Setup
+	public void setup() throws Exception
+	{
+		dataAccess = Fixtures.dataAccess(Fixtures.config(null, ""));
+		documents  = Fixtures.documents(1, NB_DOCUMENTS, depth, fanout);
+		raws       = Fixtures.raw(documents);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(NB_DOCUMENTS)
+	public void decodeRaw(Blackhole bh)
+	{
+		for (var doc : raws)
+			bh.consume(dataAccess.nativeToTree(doc));
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(NB_DOCUMENTS)
+	public void decodeDocument(Blackhole bh)
+	{
+		for (var doc : documents)
+			bh.consume(dataAccess.nativeToTree(doc));
+	}
+}
@@ -0,0 +1,244 @@
+package insomnia.demo.bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.apache.commons.configuration2.Configuration;
+import org.apache.commons.configuration2.MapConfiguration;
+import org.bson.BsonArray;
+import org.bson.BsonDocument;
+import org.bson.BsonDouble;
+import org.bson.BsonInt32;
+import org.bson.BsonString;
+import org.bson.BsonValue;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.BsonDocumentCodec;
+
+import insomnia.data.ITree;
+import insomnia.demo.Measures;
+import insomnia.demo.TheConfiguration;
+import insomnia.demo.data.DataAccesses;
+import insomnia.demo.data.IDataAccess;
+import insomnia.implem.data.Trees;
+import insomnia.implem.data.creational.TreeBuilder;
+import insomnia.implem.kv.data.KVLabel;
+import insomnia.implem.kv.data.KVLabels;
+import insomnia.implem.summary.PathSummary;
+import insomnia.implem.summary.PathSummaryWriter;
+import insomnia.lib.numeric.MultiInterval;
+
+/**
+ * Deterministic documents and reformulation-like queries for the benchmarks.
+ * The labels are taken from a small alphabet by depth, so the paths are deep and the same labels are repeated among siblings and levels.
+ */
+final class Fixtures
+{
+	private Fixtures()
+	{
+		throw new AssertionError();
+	}
+
+	static final String ID = "_id";
+
+	static final int NB_LABELS = 4;
+
+	static String label(int depth, int i)
+	{
+		return "l" + depth + "_" + i;
+	}
+
+	private static String label(Random random, int depth, int nbLabels)
+	{
+		return label(depth, random.nextInt(nbLabels));
+	}
+
+	private static String label(Random random, int depth)
+	{
+		return label(random, depth, NB_LABELS);
+	}
+
+	private static BsonValue leafValue(Random random)
+	{
+		switch (random.nextInt(3))
+		{
+		case 0:
+			return new BsonInt32(random.nextInt(100));
+		case 1:
+			return new BsonDouble(random.nextInt(100) / 4.0);
+		default:
+			return new BsonString("s" + random.nextInt(100));
+		}
+	}
+
+	// ==========================================================================
+
+	private static BsonDocument document(Random random, int depth, int maxDepth, int fanout, int nbLabels)
+	{
+		var ret = new BsonDocument();
+
+		for (int i = 0; i < fanout; i++)
+		{
+			var label = label(random, depth, nbLabels);
+
+			if (depth + 1 == maxDepth)
+				ret.put(label, leafValue(random));
+			// An array of sub-documents with the same label
+			else if (random.nextInt(3) == 0)
+			{
+				var array = new BsonArray();
+
+				for (int j = 0, c = 1 + random.nextInt(3); j < c; j++)
+					array.add(document(random, depth + 1, maxDepth, fanout, nbLabels));
+
+				ret.put(label, array);
+			}
+			else
+				ret.put(label, document(random, depth + 1, maxDepth, fanout, nbLabels));
+		}
+		return ret;
+	}
+
+	static List<BsonDocument> documents(long seed, int nb, int depth, int fanout)
+	{
+		return documents(seed, nb, depth, fanout, NB_LABELS);
+	}
+
+	/**
+	 * @param nbLabels the number of labels by depth
+	 */
+	static List<BsonDocument> documents(long seed, int nb, int depth, int fanout, int nbLabels)
+	{
+		var random = new Random(seed);
+		var ret    = new ArrayList<BsonDocument>(nb);
+
+		for (int i = 0; i < nb; i++)
+		{
+			var doc = new BsonDocument(ID, new BsonInt32(i));
+			doc.putAll(document(random, 0, depth, fanout, nbLabels));
+			ret.add(doc);
+		}
+		return ret;
+	}
+
+	static List<RawBsonDocument> raw(List<BsonDocument> documents)
+	{
+		var codec = new BsonDocumentCodec();
+		var ret   = new ArrayList<RawBsonDocument>(documents.size());
+
+		for (var doc : documents)
+			ret.add(new RawBsonDocument(doc, codec));
+
+		return ret;
+	}
+
+	// ==========================================================================
+
+	/**
+	 * A query of {@code nbBranches} paths of length {@code depth} from the root.
+	 * The branches share their first labels with a high probability, so the translation has repeated labels to combine.
+	 */
+	static ITree<Object, KVLabel> query(Random random, int depth, int nbBranches)
+	{
+		var tb = new TreeBuilder<Object, KVLabel>();
+		tb.setRooted();
+
+		for (int b = 0; b < nbBranches; b++)
+		{
+			for (int d = 0; d < depth; d++)
+				tb.addChildDown(KVLabels.create(label(random, d)));
+
+			var value = leafValue(random);
+
+			if (value.isString())
+				tb.setValue(value.asString().getValue());
+			else if (value.isNumber())
+				tb.setValue(value.asNumber().doubleValue());
+
+			tb.setTerminal();
+
+			for (int d = 0; d < depth; d++)
+				tb.goUp();
+		}
+		return Trees.create(tb);
+	}
+
+	static List<ITree<Object, KVLabel>> queries(long seed, int nb, int depth, int nbBranches)
+	{
+		var random = new Random(seed);
+		var ret    = new ArrayList<ITree<Object, KVLabel>>(nb);
+
+		for (int i = 0; i < nb; i++)
+			ret.add(query(random, depth, nbBranches));
+
+		return ret;
+	}
+
+	// ==========================================================================
+
+	/**
+	 * Write the path summary of some documents.
+	 */
+	static Path pathSummary(IDataAccess<Object, KVLabel> dataAccess, List<RawBsonDocument> documents) throws IOException
+	{
+		PathSummary<Object, KVLabel> summary = PathSummary.create();
+
+		for (var doc : documents)
+			summary.addTree(dataAccess.nativeToTree(doc));
+
+		var ret = Files.createTempFile("bench-summary", ".txt");
+		ret.toFile().deleteOnExit();
+
+		try (var writer = Files.newBufferedWriter(ret))
+		{
+			new PathSummaryWriter<Object, KVLabel>().setLabelEncoder(KVLabels::encodeTo).writeTo(summary, writer);
+		}
+		return ret;
+	}
+
+	/**
+	 * A partition of the documents having an id in [from,to[, its interval written with its toString as the partition command does.
+	 */
+	static String idPartition(long from, long to)
+	{
+		var interval = MultiInterval.empty();
+
+		for (var id = from; id < to; id++)
+			interval.add(id);
+
+		return String.join(" ", "ids", label(0, 0), interval.getIntervals().get(0).toString());
+	}
+
+	/**
+	 * The configuration of a MongoDB data access; no connection is opened while only translating and decoding.
+	 *
+	 * @param summary the path summary for the query translation, or null for the constant navigator
+	 */
+	static Configuration config(Path summary, String partition)
+	{
+		var ret = new HashMap<String, Object>(Map.of( //
+			"data", "mongodb://localhost:27017", //
+			"db", "bench", //
+			"db.collection", "bench", //
+			"partition", partition, //
+			TheConfiguration.OneProperty.PartitionID.getPropertyName(), ID //
+		));
+
+		if (null != summary)
+		{
+			ret.put("toNative.summary", summary.toString());
+			ret.put("toNative.summary.type", "path");
+		}
+		return new MapConfiguration(ret);
+	}
+
+	static IDataAccess<Object, KVLabel> dataAccess(Configuration config) throws Exception
+	{
+		return DataAccesses.getDataAccess(config, new Measures());
+	}
+}
@@ -0,0 +1,181 @@
+package insomnia.demo.bench;
+
+import java.lang.management.ManagementFactory;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import insomnia.data.ITree;
+import insomnia.fsa.fta.IBUFTA;
+import insomnia.implem.fsa.fta.buftachunk.modifier.BUFTATerminalRuleApplier;
+import insomnia.implem.fsa.fta.creational.BUFTABuilder;
+import insomnia.implem.kv.KV;
+import insomnia.implem.kv.data.KVLabel;
+import insomnia.implem.summary.DepthSummary;
+import insomnia.implem.summary.LabelSummary;
+import insomnia.implem.summary.PathSummary;
+import insomnia.rule.IRule;
+import insomnia.summary.ISummary;
+
+/**
+ * Scaling of the reformulation generation, like ComGenerate: the rules are applied while building the automaton of the query,
+ * then the reformulations accepted by the summary are generated.
+ * <p>
+ * automaton gives the time to build the automaton; generate gives the reformulations and the allocated bytes by second
+ * (reformulations and allocatedBytes counters): the bytes by reformulation is the ratio of the two scores,
+ * JMH dividing all the EVENTS counters by the time.
+ * The rules rename the labels of a depth to other labels of the same depth in both directions, the documents of the summary having all these labels.
+ */
+@State(Scope.Thread)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GenerationBench
+{
+	private static final int DEPTH = 3;
+
+	/**
+	 * The number of branches of depth 3 of the query.
+	 */
+	@Param({ "2", "4", "8" })
+	public int querySize;
+
+	@Param({ "4", "16", "64" })
+	public int nbRules;
+
+	private ITree<Object, KVLabel> query;
+
+	private List<IRule<Object, KVLabel>> rules;
+
+	private List<ITree<Object, KVLabel>> documents;
+
+	private IBUFTA<Object, KVLabel> automaton;
+
+	/**
+	 * A new summary for each generation, as {@link ISummary#consider(IBUFTA)} modifies it.
+	 */
+	@State(Scope.Thread)
+	public static class Summaries
+	{
+		@Param({ "depth", "label", "path" })
+		public String summaryType;
+
+		private ISummary<Object, KVLabel> summary;
+
+		@Setup(Level.Invocation)
+		public void newSummary(GenerationBench bench)
+		{
+			switch (summaryType)
+			{
+			case "depth":
+				summary = DepthSummary.create();
+				break;
+			case "label":
+				summary = LabelSummary.create();
+				break;
+			case "path":
+				summary = PathSummary.create();
+				break;
+			default:
+				throw new IllegalArgumentException(String.format("Invalid summary type: %s", summaryType));
+			}
+			bench.documents.forEach(summary::addTree);
+		}
+	}
+
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	@State(Scope.Thread)
+	public static class Counters
+	{
+		public long reformulations, allocatedBytes;
+
+		@Setup(Level.Iteration)
+		public void reset()
+		{
+			reformulations = allocatedBytes = 0;
+		}
+	}
+
+	private static List<IRule<Object, KVLabel>> rules(int nb) throws ParseException
+	{
+		var ret = new ArrayList<IRule<Object, KVLabel>>(nb);
+
+		for (int i = 0; ret.size() < nb; i++)
+		{
+			var depth = i % DEPTH;
+			var from  = Fixtures.label(depth, (i / DEPTH) % Fixtures.NB_LABELS);
+			var to    = Fixtures.label(depth, Fixtures.NB_LABELS + i / DEPTH);
+			ret.add(KV.ruleFromString(from, to));
+
+			if (ret.size() < nb)
+				ret.add(KV.ruleFromString(to, from));
+		}
+		return ret;
+	}
+
+	@Setup
+	public void setup() throws Exception
+	{
+		var dataAccess = Fixtures.dataAccess(Fixtures.config(null, ""));
+		var nbLabels   = Fixtures.NB_LABELS + nbRules / DEPTH + 1;
+
+		query     = Fixtures.query(new Random(1), DEPTH, querySize);
+		rules     = rules(nbRules);
+		documents = new ArrayList<>();
+
+		for (var doc : Fixtures.raw(Fixtures.documents(2, 1_000, DEPTH, 3, nbLabels)))
+			documents.add(dataAccess.nativeToTree(doc));
+
+		automaton = automaton();
+	}
+
+	private static long allocatedBytes()
+	{
+		var bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		return bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	// ==========================================================================
+
+	@Benchmark
+	@BenchmarkMode(Mode.AverageTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public IBUFTA<Object, KVLabel> automaton()
+	{
+		return BUFTABuilder.create(query, KV.fsaInterpretation()) //
+			.setChunkModifier(BUFTATerminalRuleApplier.getMod(rules)) //
+			.create();
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.Throughput)
+	@OutputTimeUnit(TimeUnit.SECONDS)
+	public long generate(Summaries summaries, Counters counters)
+	{
+		var summary = summaries.summary;
+		var start   = allocatedBytes();
+
+		summary.consider(automaton);
+		var ret = summary.generateTrees().count();
+
+		counters.allocatedBytes += allocatedBytes() - start;
+		counters.reformulations += ret;
+		return ret;
+	}
+}
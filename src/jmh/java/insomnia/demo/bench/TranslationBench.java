@@ -0,0 +1,81 @@
+package insomnia.demo.bench;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import insomnia.data.ITree;
+import insomnia.demo.data.IDataAccess;
+import insomnia.implem.kv.data.KVLabel;
+
+/**
+ * Throughput of the translation of queries to MongoDB filters (tree2Query, combineExpr, deduplicateChilds, makeTheLabelDocument).
+ * The allocation rate is given by the gc profiler: {@code java -jar target/benchmarks.jar TranslationBench -prof gc}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TranslationBench
+{
+	private static final int NB_QUERIES = 1_000, NB_DOCUMENTS = 1_000;
+
+	/**
+	 * constant: no summary, path: a path summary of the documents.
+	 */
+	@Param({ "constant", "path" })
+	public String navigator;
+
+	@Param({ "3", "8" })
+	public int depth;
+
+	@Param({ "1", "4" })
+	public int nbBranches;
+
+	/**
+	 * A logical partition in the format of the 'partition' property, empty for none;
+	 * 'interval' is the interval of the ids of the first half of the documents, added to each query.
+	 */
+	@Param({ "", "interval" })
+	public String partition;
+
+	private IDataAccess<Object, KVLabel> dataAccess;
+
+	private List<ITree<Object, KVLabel>> queries;
+
+	@Setup
+	public void setup() throws Exception
+	{
+		var summary = navigator.equals("path") //
+			? Fixtures.pathSummary(Fixtures.dataAccess(Fixtures.config(null, "")), Fixtures.raw(Fixtures.documents(1, NB_DOCUMENTS, depth, 3))) //
+			: null;
+
+		var partitionConf = partition.equals("interval") ? Fixtures.idPartition(0, NB_DOCUMENTS / 2) : partition;
+
+		dataAccess = Fixtures.dataAccess(Fixtures.config(summary, partitionConf));
+		queries    = Fixtures.queries(2, NB_QUERIES, depth, nbBranches);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(NB_QUERIES)
+	public void translate(Blackhole bh)
+	{
+		for (var q : queries)
+			bh.consume(dataAccess.treeToQNative(q));
+	}
+}
@@ -2,18 +2,25 @@ package insomnia.demo;
 
 import java.io.PrintStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.stream.Collectors;
 
 import insomnia.lib.cpu.CPUTimeBenchmark;
 
+/**
+ * The measures of a run by group, safe to use from several threads.
+ * The getters resolve a measure once, the returned object being the handle to update it;
+ * a {@link LongAdder} counter can be shared by threads without contention.
+ */
 public final class Measures
 {
-	private Map<String, Map<String, Object>> groups = new HashMap<>();
+	private Map<String, Map<String, Object>> groups = new ConcurrentHashMap<>();
 
-	private String prefix = "";
+	private volatile String prefix = "";
 
 	private String defaultGroup = "measures";
 
@@ -24,15 +31,100 @@ public final class Measures
 
 	// ==========================================================================
 
+	/**
+	 * Merge the measures of another instance, for instance those of a thread:
+	 * a measure already present is summed with the added one, except a String which is replaced.
+	 * The added objects are copied so the two instances stay independent.
+	 */
 	public void addAll(Measures toAdd)
 	{
-		groups.putAll(toAdd.get());
+		for (var group : toAdd.get().entrySet())
+		{
+			var measures = group(group.getKey());
+
+			for (var measure : group.getValue().entrySet())
+				measures.compute(measure.getKey(), (k, old) -> null == old ? copy(measure.getValue()) : merge(old, measure.getValue()));
+		}
+	}
+
+	/**
+	 * Set the measures of another instance, replacing the measures already present.
+	 * The objects are shared, to follow measures updated by the other instance.
+	 */
+	public void putAll(Measures toPut)
+	{
+		for (var group : toPut.get().entrySet())
+			group(group.getKey()).putAll(group.getValue());
+	}
+
+	private static Object copy(Object measure)
+	{
+		if (measure instanceof CPUTimeBenchmark)
+		{
+			var ret = new CPUTimeBenchmark();
+			ret.plus((CPUTimeBenchmark) measure);
+			return ret;
+		}
+		if (measure instanceof LongAdder)
+		{
+			var ret = new LongAdder();
+			ret.add(((LongAdder) measure).sum());
+			return ret;
+		}
+		if (measure instanceof int[])
+			return ((int[]) measure).clone();
+		if (measure instanceof long[])
+			return ((long[]) measure).clone();
+
+		return measure;
+	}
+
+	/**
+	 * Add a measure to an existing one, in place for the mutable measures so their handles stay valid.
+	 */
+	private static Object merge(Object old, Object add)
+	{
+		if (old instanceof CPUTimeBenchmark && add instanceof CPUTimeBenchmark)
+		{
+			((CPUTimeBenchmark) old).plus((CPUTimeBenchmark) add);
+			return old;
+		}
+		if (old instanceof LongAdder && add instanceof LongAdder)
+		{
+			((LongAdder) old).add(((LongAdder) add).sum());
+			return old;
+		}
+		if (old instanceof int[] && add instanceof int[] && ((int[]) old).length == ((int[]) add).length)
+		{
+			var tab = (int[]) old;
+
+			for (int i = 0; i < tab.length; i++)
+				tab[i] += ((int[]) add)[i];
+
+			return old;
+		}
+		if (old instanceof long[] && add instanceof long[] && ((long[]) old).length == ((long[]) add).length)
+		{
+			var tab = (long[]) old;
+
+			for (int i = 0; i < tab.length; i++)
+				tab[i] += ((long[]) add)[i];
+
+			return old;
+		}
+		if (old instanceof Integer && add instanceof Integer)
+			return (Integer) old + (Integer) add;
+		if (old instanceof Number && add instanceof Number)
+			return ((Number) old).longValue() + ((Number) add).longValue();
+
+		return copy(add);
 	}
 
 	// ==========================================================================
 
 	public Map<String, Map<String, Object>> get()
 	{
+		var prefix = this.prefix;
 
 		if (prefix.isEmpty())
 			return Collections.unmodifiableMap(groups);
@@ -60,25 +152,49 @@ public final class Measures
 		return getIntTab(defaultGroup, measure);
 	}
 
+	public LongAdder getCounter(String measure)
+	{
+		return getCounter(defaultGroup, measure);
+	}
+
+	private Map<String, Object> group(String group)
+	{
+		return groups.computeIfAbsent(group, s -> new ConcurrentHashMap<>());
+	}
+
 	public CPUTimeBenchmark getTime(String group, String measure)
 	{
-		return (CPUTimeBenchmark) groups.computeIfAbsent(group, s -> new HashMap<>()).computeIfAbsent(measure, k -> new CPUTimeBenchmark());
+		return (CPUTimeBenchmark) group(group).computeIfAbsent(measure, k -> new CPUTimeBenchmark());
 	}
 
 	public long getLong(String group, String measure)
 	{
-		return (Long) groups.computeIfAbsent(group, s -> new HashMap<>()).computeIfAbsent(measure, k -> 0);
+		return ((Number) group(group).computeIfAbsent(measure, k -> 0L)).longValue();
 	}
 
 	public int getInt(String group, String measure)
 	{
-		return (Integer) groups.computeIfAbsent(group, s -> new HashMap<>()).computeIfAbsent(measure, k -> 0);
+		return ((Number) group(group).computeIfAbsent(measure, k -> 0)).intValue();
 	}
 
 	public int[] getIntTab(String group, String measure)
 	{
-		return (int[]) groups.computeIfAbsent(group, s -> new HashMap<>()).computeIfAbsent(measure, k -> new int[] { 0 });
+		return (int[]) group(group).computeIfAbsent(measure, k -> new int[] { 0 });
 	}
+
+	public long[] getLongTab(String group, String measure)
+	{
+		return (long[]) group(group).computeIfAbsent(measure, k -> new long[] { 0 });
+	}
+
+	/**
+	 * A counter to resolve once and to update from any thread.
+	 */
+	public LongAdder getCounter(String group, String measure)
+	{
+		return (LongAdder) group(group).computeIfAbsent(measure, k -> new LongAdder());
+	}
+
 	// ==========================================================================
 
 	private void set_(String measure, Object val)
@@ -88,7 +204,7 @@ public final class Measures
 
 	private void set_(String group, String measure, Object val)
 	{
-		groups.computeIfAbsent(group, s -> new HashMap<>()).put(measure, val);
+		group(group).put(measure, val);
 	}
 	// ==========================================================================
 
@@ -142,6 +258,7 @@ public final class Measures
 
 	public void print(PrintStream print)
 	{
+		var prefix = this.prefix;
 		var sortedGroups = new ArrayList<>(groups.entrySet());
 		Collections.sort(sortedGroups, Map.Entry.<String, Map<String, Object>>comparingByKey());
 
@@ -153,7 +270,30 @@ public final class Measures
 			Collections.sort(sortedMeasures, Map.Entry.<String, Object>comparingByKey());
 
 			for (var measure : sortedMeasures)
-				print.printf("%s: %s\n", measure.getKey(), measure.getValue());
+				print.printf("%s: %s\n", measure.getKey(), toString(measure.getValue()));
+		}
+	}
+
+	private static String toString(Object measure)
+	{
+		if (measure instanceof int[])
+		{
+			var tab = (int[]) measure;
+
+			if (tab.length == 1)
+				return Integer.toString(tab[0]);
+
+			return Arrays.toString(tab);
+		}
+		if (measure instanceof long[])
+		{
+			var tab = (long[]) measure;
+
+			if (tab.length == 1)
+				return Long.toString(tab[0]);
+
+			return Arrays.toString(tab);
 		}
+		return String.valueOf(measure);
 	}
 }
@@ -21,12 +21,13 @@ import insomnia.demo.TheConfiguration;
 import insomnia.demo.TheDemo;
 import insomnia.demo.TheDemo.TheMeasures;
 import insomnia.demo.data.DataAccesses;
+import insomnia.demo.data.Fingerprint;
+import insomnia.demo.data.TreeKeys;
 import insomnia.demo.input.InputData;
 import insomnia.demo.input.Query;
 import insomnia.demo.input.Rules;
 import insomnia.demo.input.Summary;
 import insomnia.fsa.fta.IBUFTA;
-import insomnia.implem.data.Trees;
 import insomnia.implem.fsa.fta.buftachunk.modifier.BUFTATerminalRuleApplier;
 import insomnia.implem.fsa.fta.buftachunk.modifier.IBUFTAChunkModifier;
 import insomnia.implem.fsa.fta.creational.BUFTABuilder;
@@ -93,7 +94,7 @@ final class ComGenerate implements ICommand
 		fileName = getFileName(fileName);
 		var filePath = Path.of(String.format(outputPattern, fileName));
 
-		return new PrintStream(InputData.fakeOpenOutputPath(filePath, options));
+		return new PrintStream(InputData.fakeOpenAsyncOutputPath(filePath, TheDemo.measures().getTime("output", "blocked"), options));
 	}
 
 	// ==========================================================================
@@ -171,15 +172,15 @@ final class ComGenerate implements ICommand
 
 		if (deduplicate)
 		{
-			var queryDup = new ArrayListValuedHashMap<Object, Object>();
+			// Group the natives by fingerprint of the canonical tree instead of keeping a copy of each tree
+			var queryDup = new ArrayListValuedHashMap<Fingerprint, Object>();
 
 			q.forEach(t -> {
 				var qnative = access.treeToQNative(t);
 				queries.println(t);
 				natives.println(qnative);
 
-				t = Trees.create(t);
-				queryDup.put(t, qnative);
+				queryDup.put(Fingerprint.of(TreeKeys.canonical(t)), qnative);
 
 				nb[0]++;
 			});
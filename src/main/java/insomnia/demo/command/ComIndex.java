@@ -0,0 +1,135 @@
+package insomnia.demo.command;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.apache.commons.configuration2.Configuration;
+
+import insomnia.demo.Measures;
+import insomnia.demo.TheConfiguration;
+import insomnia.demo.TheDemo;
+import insomnia.demo.data.DataAccesses;
+import insomnia.demo.data.IndexAdvisor;
+
+final class ComIndex implements ICommand
+{
+	private enum MyOptions
+	{
+		Max(Option.builder().longOpt("index.max").desc("(int) Maximal number of indexes to advise").build()), //
+		Compound(Option.builder().longOpt("index.compound").desc("(bool) Advise compound indexes of two fields").build()), //
+		Wildcard(Option.builder().longOpt("index.wildcard").desc("(bool) Advise wildcard indexes on the top-level fields").build()), //
+		Create(Option.builder().longOpt("index.create").desc("(bool) Create the advised indexes").build()), //
+		Explain(Option.builder().longOpt("index.explain").desc("(bool) Explain the queries before and after the creation of the indexes").build()), //
+		;
+
+		Option opt;
+
+		private MyOptions(Option o)
+		{
+			opt = o;
+		}
+	}
+
+	@Override
+	public Options getConfigProperties()
+	{
+		var ret = new Options();
+		TheConfiguration.getConfigProperties().getOptions().forEach(ret::addOption);
+
+		for (var opt : List.of(MyOptions.values()))
+			ret.addOption(opt.opt);
+
+		return ret;
+	}
+
+	@Override
+	public String getName()
+	{
+		return "index";
+	}
+
+	@Override
+	public String getDescription()
+	{
+		return "Advise (and create) the indexes serving the most branches of the reformulations";
+	}
+
+	// ==========================================================================
+
+	private List<IndexAdvisor.Index> advise(Configuration config, Measures measures) throws Exception
+	{
+		var dataAccess = DataAccesses.getDataAccess(config, measures);
+		var advisor    = new IndexAdvisor( //
+			config.getBoolean(MyOptions.Compound.opt.getLongOpt(), true), //
+			config.getBoolean(MyOptions.Wildcard.opt.getLongOpt(), false));
+
+		var time = measures.getTime("index", "advise");
+		time.startChrono();
+
+		try (var queries = ComGenerate.queries(config, measures))
+		{
+			queries.map(dataAccess::treeToQNative).map(dataAccess::nativeQueryPaths).forEach(branches -> branches.forEach(advisor::addBranch));
+		}
+		var ret = advisor.advise(config.getInt(MyOptions.Max.opt.getLongOpt(), 3));
+		time.stopChrono();
+
+		measures.set("index", "branches.nb", advisor.getNbBranches());
+		measures.set("index", "branches.served", ret.stream().mapToInt(IndexAdvisor.Index::getNbBranches).sum());
+		measures.set("index", "advice", ret.stream().map(Object::toString).collect(Collectors.joining(" ")));
+		return ret;
+	}
+
+	/**
+	 * Explain the queries with their own measures, added to {@code measures} with a prefix.
+	 */
+	private void explain(Configuration config, Measures measures, String prefix) throws Exception
+	{
+		var explainMeasures = new Measures();
+		var dataAccess      = DataAccesses.getDataAccess(config, explainMeasures);
+		var dbTime          = explainMeasures.getTime(TheDemo.TheMeasures.QEVAL_STATS_DB_TIME.measureName());
+		long nbAnswers[]    = { 0 };
+
+		try (var results = dataAccess.explain(ComGenerate.queries(config, explainMeasures)))
+		{
+			results.forEach(r -> {
+				var stats = dataAccess.explainStats(r);
+				nbAnswers[0] += stats.getNbAnswers();
+				dbTime.plus(stats.getTime());
+			});
+		}
+		explainMeasures.set("answers", "total", nbAnswers[0]);
+		explainMeasures.setPrefix(prefix);
+		measures.addAll(explainMeasures);
+	}
+
+	public void execute(Configuration config) throws Exception
+	{
+		var measures = TheDemo.measures();
+		var create   = config.getBoolean(MyOptions.Create.opt.getLongOpt(), false);
+		var explain  = config.getBoolean(MyOptions.Explain.opt.getLongOpt(), create);
+		var indexes  = advise(config, measures);
+		var out      = TheDemo.out();
+
+		for (var index : indexes)
+			out.printf("%s: %d branches\n", index.getFields(), index.getNbBranches());
+
+		if (explain)
+			explain(config, measures, "before.");
+
+		if (!create)
+			return;
+
+		var dataAccess = DataAccesses.getDataAccess(config, measures);
+		var time       = measures.getTime("index", "create");
+
+		time.startChrono();
+		for (var index : indexes)
+			dataAccess.createIndex(index.getFields());
+		time.stopChrono();
+
+		if (explain)
+			explain(config, measures, "after.");
+	}
+}
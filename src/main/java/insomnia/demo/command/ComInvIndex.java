@@ -0,0 +1,76 @@
+package insomnia.demo.command;
+
+import java.nio.file.Path;
+import java.util.List;
+
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.apache.commons.configuration2.Configuration;
+
+import insomnia.demo.TheConfiguration;
+import insomnia.demo.TheDemo;
+import insomnia.demo.data.DataAccesses;
+import insomnia.demo.data.mem.MemDataAccess;
+
+final class ComInvIndex implements ICommand
+{
+	private enum MyOptions
+	{
+		Dir(Option.builder().longOpt("invindex.dir").desc("(path) Directory of the inverted indexes, to be opened with data=invindex:<dir>").build()), //
+		;
+
+		Option opt;
+
+		private MyOptions(Option o)
+		{
+			opt = o;
+		}
+	}
+
+	@Override
+	public Options getConfigProperties()
+	{
+		var ret = new Options();
+		TheConfiguration.getConfigProperties().getOptions().forEach(ret::addOption);
+
+		for (var opt : List.of(MyOptions.values()))
+			ret.addOption(opt.opt);
+
+		return ret;
+	}
+
+	@Override
+	public String getName()
+	{
+		return "invindex";
+	}
+
+	@Override
+	public String getDescription()
+	{
+		return "Build the inverted index of each collection";
+	}
+
+	// ==========================================================================
+
+	public void execute(Configuration config) throws Exception
+	{
+		var measures = TheDemo.measures();
+		var dir      = Path.of(config.getString(MyOptions.Dir.opt.getLongOpt(), "invindex"));
+		var db       = config.getString("db");
+		var out      = TheDemo.out();
+
+		for (var dataAccess : DataAccesses.getDataAccesses(config))
+		{
+			var collection = dataAccess.getCollectionName();
+			var time       = measures.getTime("invindex", collection);
+
+			time.startChrono();
+			var nb = MemDataAccess.buildIndex(dataAccess, dir, db, collection);
+			time.stopChrono();
+
+			measures.set("invindex", collection + ".documents", nb);
+			out.printf("%s: %d documents\n", collection, nb);
+		}
+	}
+}
@@ -16,7 +16,7 @@ import org.apache.commons.configuration2.Configuration;
 import insomnia.demo.TheConfiguration;
 import insomnia.demo.TheDemo;
 import insomnia.demo.data.DataAccesses;
-import insomnia.demo.input.InputData;
+import insomnia.demo.input.AsyncOutputStream;
 import insomnia.demo.input.LogicalPartition;
 import insomnia.lib.numeric.MultiInterval;
 
@@ -76,7 +76,7 @@ final class ComPartition implements ICommand
 		fileName = getFileName(fileName);
 		var filePath = Path.of(String.format(outputPattern, fileName));
 
-		return new PrintStream(InputData.tryOpenOutputPath(filePath, options));
+		return new PrintStream(new AsyncOutputStream(filePath, TheDemo.measures().getTime("output", "blocked"), options));
 	}
 
 	// ==========================================================================
@@ -84,6 +84,7 @@ final class ComPartition implements ICommand
 	private void prefixPartition(Configuration config) throws ParseException, URISyntaxException
 	{
 		var da = DataAccesses.getDataAccess(config, TheDemo.measures());
+		da.setProjection(List.of());
 
 		var partitions       = config.getList(String.class, "partition", List.of());
 		var partitionDecoder = LogicalPartition.decoder();
@@ -9,20 +9,18 @@ import java.nio.file.OpenOption;
 import java.nio.file.Path;
 import java.text.ParseException;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executors;
 import java.util.function.Consumer;
-import java.util.function.Predicate;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import org.apache.commons.cli.Option;
 import org.apache.commons.cli.Options;
-import org.apache.commons.collections4.Bag;
-import org.apache.commons.collections4.bag.HashBag;
 import org.apache.commons.configuration2.Configuration;
 import org.apache.commons.lang3.tuple.Pair;
 
@@ -32,6 +30,8 @@ import insomnia.demo.TheConfiguration;
 import insomnia.demo.TheDemo;
 import insomnia.demo.data.DataAccesses;
 import insomnia.demo.data.IDataAccess;
+import insomnia.demo.data.LongBag;
+import insomnia.demo.data.ReformulationDag;
 import insomnia.demo.input.InputData;
 import insomnia.demo.input.LogicalPartition;
 import insomnia.demo.input.Query;
@@ -47,9 +47,10 @@ final class ComQuerying implements ICommand
 	private enum MyOptions
 	{
 		OutputPattern(Option.builder().longOpt("output.pattern").desc("Output path for save results in files; %s must be in the pattern to be replaced by a name").build()) //
-		, QueryMode(Option.builder().longOpt("querying.mode").desc("(each|stats|summary_stats|query|explain|explaincolls) Query mode").build()) //
+		, QueryMode(Option.builder().longOpt("querying.mode").desc("(each|stats|summary_stats|query|aggregate|explain|explaincolls|scan) Query mode").build()) //
 		, QueryFilter(Option.builder().longOpt("querying.filter").desc("(empty|noempty) Filter queries that are only empty xor not").build()) //
 		, DisplayAnswers(Option.builder().longOpt("querying.display.answers").desc("(bool) Display the answers").build()) //
+		, ProjectIds(Option.builder().longOpt("querying.projectIds").desc("(bool) If true (default), only the ids of the answer records are retrieved").build()) //
 		, ConfigPrint(Option.builder().longOpt("querying.config.print").desc("(bool) Print the config in a file").build()) //
 		;
 
@@ -105,7 +106,7 @@ final class ComQuerying implements ICommand
 
 	private enum QueryMode
 	{
-		EACH, STATS, SUMMARY_STATS, QUERY, EXPLAIN, EXPLAINCOLLS;
+		EACH, STATS, SUMMARY_STATS, QUERY, AGGREGATE, EXPLAIN, EXPLAINCOLLS, SCAN;
 
 		static QueryMode fromString(String mode)
 		{
@@ -128,7 +129,7 @@ final class ComQuerying implements ICommand
 		fileName = getFileName(fileName);
 		var filePath = Path.of(String.format(outputPattern, fileName));
 
-		return new PrintStream(InputData.fakeOpenOutputPath(filePath, options));
+		return new PrintStream(InputData.fakeOpenAsyncOutputPath(filePath, TheDemo.measures().getTime("output", "blocked"), options));
 	}
 
 	private QueryFilter getQueryFilterE(Configuration config)
@@ -136,29 +137,23 @@ final class ComQuerying implements ICommand
 		return QueryFilter.fromString(config.getString(MyOptions.QueryFilter.opt.getLongOpt()));
 	}
 
-	private Predicate<ITree<Object, KVLabel>> getQueryFilter(QueryFilter filterType, IDataAccess<Object, KVLabel> dataAccess)
+	private void assignQueryFilter(QueryFilter filterType, IDataAccess<Object, KVLabel> dataAccess)
 	{
 		switch (filterType)
 		{
 		case NONE:
-			return null;
+			break;
 		case EMPTY:
-			return t -> !dataAccess.hasAnswer(t);
+			dataAccess.setEmptinessFilter(true);
+			break;
 		case NOEMPTY:
-			return t -> dataAccess.hasAnswer(t);
+			dataAccess.setEmptinessFilter(false);
+			break;
 		default:
 			throw new AssertionError();
 		}
 	}
 
-	private void assignQueryFilter(QueryFilter filterType, IDataAccess<Object, KVLabel> dataAccess)
-	{
-		var qfilter = getQueryFilter(filterType, dataAccess);
-
-		if (null != qfilter)
-			dataAccess.setQueryFilter(qfilter);
-	}
-
 	private IDataAccess<Object, KVLabel> getDataAccess(Configuration config, Measures measures) throws URISyntaxException, ParseException
 	{
 		var ret = DataAccesses.getDataAccess(config, measures);
@@ -166,6 +161,15 @@ final class ComQuerying implements ICommand
 		return ret;
 	}
 
+	/**
+	 * Only the record ids of the answers are used.
+	 */
+	private void projectIds(Configuration config, IDataAccess<Object, KVLabel> dataAccess)
+	{
+		if (config.getBoolean(MyOptions.ProjectIds.opt.getLongOpt(), true))
+			dataAccess.setProjection(List.of());
+	}
+
 	private Collection<IDataAccess<Object, KVLabel>> getDataAccesses(Configuration config)
 	{
 		var ret         = DataAccesses.getDataAccesses(config);
@@ -188,6 +192,7 @@ final class ComQuerying implements ICommand
 		var dataAccess = getDataAccess(config, measures);
 		var queries    = ComGenerate.queries(config, measures);
 
+		projectIds(config, dataAccess);
 		create.startChrono();
 		var resultStream = dataAccess.executeEach(queries);
 		create.stopChrono();
@@ -197,7 +202,7 @@ final class ComQuerying implements ICommand
 		var strmNext   = measures.getTime(TheDemo.TheMeasures.QEVAL_STREAM_NEXT.measureName());
 		var strmAction = measures.getTime(TheDemo.TheMeasures.QEVAL_STREAM_ACTION.measureName());
 
-		Bag<Long> allRecords = new HashBag<>();
+		var allRecords = new LongBag();
 
 		int nbQueries[] = new int[1];
 		int nbEmpties[] = new int[1];
@@ -209,6 +214,8 @@ final class ComQuerying implements ICommand
 			var qnativenempty = new PrintStream(outputFilePrinter("native-non-empty"));
 
 			CPUTimeBenchmark.startChrono(qeval, strmNext, strmTotal);
+
+			try (resultStream)
 			{
 				resultStream.forEach(p -> {
 					strmNext.stopChrono();
@@ -228,7 +235,7 @@ final class ComQuerying implements ICommand
 					{
 						qout.printf("\n\n%s\n", query.toString());
 						records.forEach(qout::println);
-						allRecords.addAll(records);
+						records.forEach(allRecords::add);
 						dataAccess.encodeNativeQuery(nativeQ, qnativenempty);
 						qnempty.printf("%s\n%s\n\n", query, records.size());
 					}
@@ -251,16 +258,16 @@ final class ComQuerying implements ICommand
 		measures.set("reformulations", "non-empty", nbQueries[0] - nbEmpties[0]);
 		measures.set("reformulations", "total", nbQueries[0]);
 		measures.set("answers", "total", allRecords.size());
-		measures.set("answers", "unique", allRecords.uniqueSet().size());
+		measures.set("answers", "unique", allRecords.uniqueSize());
 
 		PrintStream printer;
 
 		printer = outputFilePrinter("answers");
-		allRecords.forEach(printer::println);
+		allRecords.stream().forEach(printer::println);
 		printer.close();
 
 		printer = outputFilePrinter("answers-unique");
-		allRecords.uniqueSet().forEach(printer::println);
+		allRecords.uniqueStream().forEach(printer::println);
 		printer.close();
 
 		if (config.getBoolean(MyOptions.ConfigPrint.opt.getLongOpt(), false))
@@ -277,13 +284,12 @@ final class ComQuerying implements ICommand
 		{
 			var qnativeempty  = new PrintStream(outputFilePrinter("native-empty"));
 			var qnativenempty = new PrintStream(outputFilePrinter("native-non-empty"));
+			try (var checked = dataAccess.hasAnswers(queries))
 			{
-				queries.forEach(q -> {
+				checked.forEach(t -> {
 					PrintStream printer;
 
-					boolean hasAnswer = dataAccess.hasAnswer(q);
-
-					if (hasAnswer)
+					if (t.getRight())
 						printer = qnativenempty;
 					else
 					{
@@ -291,7 +297,7 @@ final class ComQuerying implements ICommand
 						nbEmpties[0]++;
 					}
 
-					dataAccess.encodeNativeQuery(dataAccess.treeToQNative(q), printer);
+					dataAccess.encodeNativeQuery(t.getMiddle(), printer);
 					nbQueries[0]++;
 				});
 			}
@@ -307,6 +313,79 @@ final class ComQuerying implements ICommand
 			ComConfig.print(config, outputFilePrinter("config"), true);
 	}
 
+	/**
+	 * Evaluate all the reformulations together on each document of the collection, instead of sending each reformulation to the data access.
+	 */
+	private void scan(Configuration config, Measures measures) throws Exception
+	{
+		var dataAccess     = getDataAccess(config, measures);
+		var reformulations = new ReformulationDag(dataAccess.getCheckTerminalLeaf());
+		// Only kept to be printed
+		var queries        = new ArrayList<ITree<Object, KVLabel>>();
+		var keepQueries    = null != outputPattern;
+
+		var compile = measures.getTime("scan", "compile");
+		compile.startChrono();
+		try (var q = ComGenerate.queries(config, measures))
+		{
+			q.forEach(t -> {
+				reformulations.add(t);
+
+				if (keepQueries)
+					queries.add(t);
+			});
+		}
+		compile.stopChrono();
+
+		int nbAnswers[]    = { 0 };
+		int nbDocs[]       = { 0 };
+		var nonEmpty       = new BitSet();
+		var answers        = new PrintStream(outputFilePrinter("answers"));
+		var scan           = measures.getTime("scan", "documents");
+		var displayAnswers = config.getBoolean(MyOptions.DisplayAnswers.opt.getLongOpt(), false);
+
+		scan.startChrono();
+		try (var records = dataAccess.all())
+		{
+			records.forEach(r -> {
+				var matches = reformulations.matches(dataAccess.nativeToTree(r));
+				nbDocs[0]++;
+
+				if (matches.isEmpty())
+					return;
+
+				nbAnswers[0]++;
+				nonEmpty.or(matches);
+
+				if (displayAnswers)
+					answers.printf("%d %s\n", dataAccess.getRecordId(r), matches);
+				else
+					answers.println(dataAccess.getRecordId(r));
+			});
+		}
+		scan.stopChrono();
+		answers.close();
+
+		var qempty  = new PrintStream(outputFilePrinter("query-empty"));
+		var qnempty = new PrintStream(outputFilePrinter("query-non-empty"));
+
+		for (int i = 0; i < queries.size(); i++)
+			(nonEmpty.get(i) ? qnempty : qempty).println(queries.get(i));
+
+		qempty.close();
+		qnempty.close();
+
+		measures.set("scan", "states.nb", reformulations.getNbStates());
+		measures.set("scan", "documents.nb", nbDocs[0]);
+		measures.set("reformulations", "total", reformulations.getNbReformulations());
+		measures.set("reformulations", "non-empty", nonEmpty.cardinality());
+		measures.set("reformulations", "empty", reformulations.getNbReformulations() - nonEmpty.cardinality());
+		measures.set("answers", "unique", nbAnswers[0]);
+
+		if (config.getBoolean(MyOptions.ConfigPrint.opt.getLongOpt(), false))
+			ComConfig.print(config, outputFilePrinter("config"), true);
+	}
+
 	public void summaryStats(Configuration config) throws Exception
 	{
 		var measures  = TheDemo.measures();
@@ -367,12 +446,18 @@ final class ComQuerying implements ICommand
 			else
 				executeBatch(config);
 			break;
+		case AGGREGATE:
+			aggregateBatch(config);
+			break;
 		case EXPLAIN:
 			explainBatch(config);
 			break;
 		case EXPLAINCOLLS:
 			explainColls(config);
 			break;
+		case SCAN:
+			scan(config, measures);
+			break;
 		}
 	}
 	// ==========================================================================
@@ -389,6 +474,7 @@ final class ComQuerying implements ICommand
 		var qnatives   = Query.getNatives(config, measures);
 		var dataAccess = getDataAccess(config, measures);
 
+		projectIds(config, dataAccess);
 		create.startChrono();
 		var resultStream = dataAccess.executeNatives(qnatives);
 		create.stopChrono();
@@ -451,9 +537,13 @@ final class ComQuerying implements ICommand
 				var resultStream = dataAccess.explain(filteredRefs);
 				create.stopChrono();
 
-				var res = resultStream.collect(Collectors.toList());
-				resultStream = res.stream();
-				explainBatch(config, threadMeasures, dataAccess, resultStream);
+				List<Object> res;
+
+				try (resultStream)
+				{
+					res = resultStream.collect(Collectors.toList());
+				}
+				explainBatch(config, threadMeasures, dataAccess, res.stream());
 				threadTime.stopChrono();
 				return Pair.of(threadMeasures, res);
 			});
@@ -555,6 +645,62 @@ final class ComQuerying implements ICommand
 
 	// ==========================================================================
 
+	private void aggregateBatch(Configuration config) throws Exception
+	{
+		aggregateBatch(config, TheDemo.measures());
+	}
+
+	private void aggregateBatch(Configuration config, Measures measures) throws Exception
+	{
+		var queries = ComGenerate.queries(config, measures);
+		var create  = measures.getTime(TheDemo.TheMeasures.QEVAL_STREAM_CREATE.measureName());
+
+		var dataAccess = DataAccesses.getDataAccess(config, measures);
+		create.startChrono();
+		var resultStream = dataAccess.aggregate(queries);
+		create.stopChrono();
+
+		var strmNext   = measures.getTime(TheDemo.TheMeasures.QEVAL_STREAM_NEXT.measureName());
+		var strmAction = measures.getTime(TheDemo.TheMeasures.QEVAL_STREAM_ACTION.measureName());
+
+		var displayAnswers = config.getBoolean(MyOptions.DisplayAnswers.opt.getLongOpt(), false);
+		var ans_out        = new PrintStream( //
+			displayAnswers ? outputFilePrinter("answers") : PrintStream.nullOutputStream() //
+		);
+
+		long nbAnswers[]   = { 0 };
+		long nbWithoutId[] = { 0 };
+		var  allRecords    = new LongBag();
+
+		// The unique answers are only known if every count is for one record id
+		executeBatch(config, measures, dataAccess, resultStream, r -> {
+			strmNext.stopChrono();
+			strmAction.startChrono();
+			var stats = dataAccess.aggregateStats(r);
+			var id    = stats.getRecordId();
+			nbAnswers[0] += stats.getNbAnswers();
+
+			if (id.isPresent())
+			{
+				allRecords.add(id.getAsLong());
+				ans_out.println(id.getAsLong());
+			}
+			else
+				nbWithoutId[0]++;
+
+			strmAction.stopChrono();
+			strmNext.startChrono();
+		}, () -> {
+			ans_out.close();
+			measures.set("answers", "total", (int) nbAnswers[0]);
+
+			if (0 == nbWithoutId[0])
+				measures.set("answers", "unique", allRecords.uniqueSize());
+		});
+	}
+
+	// ==========================================================================
+
 	private void executeBatch(Configuration config) throws Exception
 	{
 		executeBatch(config, TheDemo.measures());
@@ -570,6 +716,7 @@ final class ComQuerying implements ICommand
 		var create = measures.getTime(TheDemo.TheMeasures.QEVAL_STREAM_CREATE.measureName());
 
 		var dataAccess = DataAccesses.getDataAccess(config, measures);
+		projectIds(config, dataAccess);
 		create.startChrono();
 		var resultStream = dataAccess.execute(queries);
 		create.stopChrono();
@@ -592,7 +739,7 @@ final class ComQuerying implements ICommand
 			: r -> {
 			};
 
-		Bag<Long> allRecords = new HashBag<>();
+		var allRecords = new LongBag();
 
 		executeBatch(config, measures, dataAccess, resultStream, r -> {
 			strmNext.stopChrono();
@@ -605,7 +752,7 @@ final class ComQuerying implements ICommand
 		}, () -> {
 			ans_out.close();
 			measures.set("answers", "total", allRecords.size());
-			measures.set("answers", "unique", allRecords.uniqueSet().size());
+			measures.set("answers", "unique", allRecords.uniqueSize());
 		});
 	}
 
@@ -619,6 +766,9 @@ final class ComQuerying implements ICommand
 
 		{
 			CPUTimeBenchmark.startChrono(qeval, strmNext, strmTotal);
+
+			// Closing the stream releases the resources of the data access, like the dedup spill files
+			try (resultStream)
 			{
 				resultStream.forEach(resultAction);
 			}
@@ -14,6 +14,7 @@ import insomnia.demo.Measures;
 import insomnia.demo.TheConfiguration;
 import insomnia.demo.TheDemo;
 import insomnia.demo.data.DataAccesses;
+import insomnia.demo.data.Pipelines;
 import insomnia.demo.input.LogicalPartition;
 import insomnia.implem.kv.data.KVLabel;
 import insomnia.implem.kv.data.KVLabels;
@@ -31,6 +32,9 @@ final class ComSummarize implements ICommand
 	private enum MyOptions
 	{
 		PrettyPrint(Option.builder().longOpt("summary.prettyPrint").build()), //
+		Prefetch(Option.builder().longOpt("summary.prefetch") //
+			.desc("(int) Number of records read and decoded in advance by a reader thread; 0 to read in the summary thread") //
+			.build()), //
 		;
 
 		Option opt;
@@ -167,8 +171,16 @@ final class ComSummarize implements ICommand
 
 				var measCreationTotal = measures.getTime("summary.creation.total");
 
+				var prefetch = config.getInt(MyOptions.Prefetch.opt.getLongOpt(), 1024);
+
 				measCreationTotal.startChrono();
-				dataAccess.all().map(dataAccess::nativeToTree).forEach(summary::addTree);
+				try (var trees = prefetch > 0 //
+					? Pipelines.prefetch(dataAccess.allTrees(), prefetch, "summary.reader", t -> {
+					}) //
+					: dataAccess.allTrees())
+				{
+					trees.forEach(summary::addTree);
+				}
 				measCreationTotal.stopChrono();
 			}
 			if (!summaryPath.isEmpty())
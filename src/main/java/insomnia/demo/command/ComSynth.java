@@ -0,0 +1,301 @@
+package insomnia.demo.command;
+
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.apache.commons.configuration2.Configuration;
+import org.bson.BsonArray;
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.BsonString;
+import org.bson.BsonValue;
+import org.bson.json.JsonMode;
+import org.bson.json.JsonWriterSettings;
+
+import insomnia.data.ITree;
+import insomnia.demo.TheConfiguration;
+import insomnia.demo.TheDemo;
+import insomnia.demo.input.AsyncOutputStream;
+import insomnia.demo.input.Query;
+import insomnia.demo.input.Rules;
+import insomnia.implem.data.Trees;
+import insomnia.implem.data.creational.TreeBuilder;
+import insomnia.implem.kv.data.KVLabel;
+import insomnia.implem.kv.data.KVLabels;
+
+/**
+ * Generate a reproducible workload: the documents of a collection, queries taken from the documents and rules renaming their labels.
+ * The documents are written as JSON lines in dir/db/collection.json, to be loaded with data=mem:<dir> or imported in MongoDB;
+ * the queries in dir/query-i.txt and the rules in dir/rules.txt, in the formats read by {@link Query} and {@link Rules}.
+ */
+final class ComSynth implements ICommand
+{
+	private enum MyOptions
+	{
+		Dir(Option.builder().longOpt("synth.dir").desc("(path) Output directory").build()), //
+		Seed(Option.builder().longOpt("synth.seed").desc("(long) Seed of the generation").build()), //
+		Documents(Option.builder().longOpt("synth.documents").desc("(int) Number of documents").build()), //
+		Depth(Option.builder().longOpt("synth.depth").desc("(int) Depth of the documents").build()), //
+		Fanout(Option.builder().longOpt("synth.fanout").desc("(int) Number of fields of an object").build()), //
+		Labels(Option.builder().longOpt("synth.labels").desc("(int) Size of the label vocabulary").build()), //
+		Arrays(Option.builder().longOpt("synth.arrays").desc("(double) Probability for a field to be an array of objects").build()), //
+		Values(Option.builder().longOpt("synth.values").desc("(int) Number of distinct values of a field").build()), //
+		Skew(Option.builder().longOpt("synth.skew").desc("(double) Skew of the values, 0 for uniform values").build()), //
+		Queries(Option.builder().longOpt("synth.queries").desc("(int) Number of queries").build()), //
+		QueryBranches(Option.builder().longOpt("synth.query.branches").desc("(int) Number of branches of a query").build()), //
+		QueryValues(Option.builder().longOpt("synth.query.values").desc("(double) Probability for a query leaf to have the value of the document").build()), //
+		Rules(Option.builder().longOpt("synth.rules").desc("(int) Number of rules").build()), //
+		;
+
+		Option opt;
+
+		private MyOptions(Option o)
+		{
+			opt = o;
+		}
+	}
+
+	@Override
+	public Options getConfigProperties()
+	{
+		var ret = new Options();
+		TheConfiguration.getConfigProperties().getOptions().forEach(ret::addOption);
+
+		for (var opt : List.of(MyOptions.values()))
+			ret.addOption(opt.opt);
+
+		return ret;
+	}
+
+	@Override
+	public String getName()
+	{
+		return "synth";
+	}
+
+	@Override
+	public String getDescription()
+	{
+		return "Generate synthetic documents, queries and rules";
+	}
+
+	// ==========================================================================
+
+	// Each part of the workload has its own generator, so the documents do not depend on the number of queries or rules
+	private Random random, sampling, queryRandom, ruleRandom;
+
+	private String idField;
+
+	private int depth, fanout, nbLabels, nbValues;
+
+	private double arrays, skew;
+
+	private void configure(Configuration config)
+	{
+		var seeds = new Random(config.getLong(MyOptions.Seed.opt.getLongOpt(), 0));
+
+		random      = new Random(seeds.nextLong());
+		sampling    = new Random(seeds.nextLong());
+		queryRandom = new Random(seeds.nextLong());
+		ruleRandom  = new Random(seeds.nextLong());
+
+		depth    = config.getInt(MyOptions.Depth.opt.getLongOpt(), 3);
+		fanout   = config.getInt(MyOptions.Fanout.opt.getLongOpt(), 3);
+		nbLabels = config.getInt(MyOptions.Labels.opt.getLongOpt(), 10);
+		nbValues = config.getInt(MyOptions.Values.opt.getLongOpt(), 100);
+		arrays   = config.getDouble(MyOptions.Arrays.opt.getLongOpt(), 0.1);
+		skew     = config.getDouble(MyOptions.Skew.opt.getLongOpt(), 0);
+
+		if (nbLabels < 2)
+			throw new IllegalArgumentException(String.format("%s must be at least 2", MyOptions.Labels.opt.getLongOpt()));
+		if (fanout > nbLabels)
+			throw new IllegalArgumentException(String.format("%s must not be greater than %s", MyOptions.Fanout.opt.getLongOpt(), MyOptions.Labels.opt.getLongOpt()));
+	}
+
+	private static String label(int i)
+	{
+		return "l" + i;
+	}
+
+	/**
+	 * A rank in [0,nb[, the low ranks being more frequent as the skew grows.
+	 */
+	private int skewedRank(int nb)
+	{
+		return (int) (nb * Math.pow(random.nextDouble(), 1 + skew));
+	}
+
+	/**
+	 * The values of a label have always the same type so the summaries keep one type by path.
+	 */
+	private BsonValue value(int label)
+	{
+		var rank = skewedRank(nbValues);
+
+		if (label % 2 == 0)
+			return new BsonInt32(rank);
+
+		return new BsonString("v" + rank);
+	}
+
+	private BsonDocument document(int level)
+	{
+		var ret    = new BsonDocument();
+		var labels = new LinkedHashSet<Integer>();
+
+		while (labels.size() < fanout)
+			labels.add(random.nextInt(nbLabels));
+
+		for (var label : labels)
+		{
+			BsonValue val;
+
+			if (level + 1 == depth)
+				val = value(label);
+			else if (random.nextDouble() < arrays)
+			{
+				var array = new BsonArray();
+
+				for (int i = 0, c = 1 + random.nextInt(3); i < c; i++)
+					array.add(document(level + 1));
+
+				val = array;
+			}
+			else
+				val = document(level + 1);
+
+			ret.put(label(label), val);
+		}
+		return ret;
+	}
+
+	// ==========================================================================
+
+	/**
+	 * A query made of random branches of a document, so it has at least this document as answer.
+	 */
+	private ITree<Object, KVLabel> query(BsonDocument doc, int nbBranches, double withValues)
+	{
+		var tb = new TreeBuilder<Object, KVLabel>();
+		tb.setRooted();
+
+		for (int b = 0; b < nbBranches; b++)
+		{
+			int       level = 0;
+			BsonValue val   = doc;
+
+			while (true)
+			{
+				if (val.isArray())
+				{
+					var array = val.asArray();
+					val = array.get(queryRandom.nextInt(array.size()));
+					continue;
+				}
+				if (!val.isDocument())
+					break;
+
+				var fields = new ArrayList<>(val.asDocument().keySet());
+				fields.remove(idField);
+				var field = fields.get(queryRandom.nextInt(fields.size()));
+
+				tb.addChildDown(KVLabels.create(field));
+				level++;
+				val = val.asDocument().get(field);
+			}
+			if (queryRandom.nextDouble() < withValues)
+			{
+				if (val.isString())
+					tb.setValue(val.asString().getValue());
+				else if (val.isNumber())
+					tb.setValue(val.asNumber().intValue());
+			}
+			tb.setTerminal();
+
+			while (level-- > 0)
+				tb.goUp();
+		}
+		return Trees.create(tb);
+	}
+
+	public void execute(Configuration config) throws Exception
+	{
+		configure(config);
+
+		var measures   = TheDemo.measures();
+		var dir        = Path.of(config.getString(MyOptions.Dir.opt.getLongOpt(), "synth"));
+		var db         = config.getString("db", "synth");
+		var collection = config.getString("db.collection", "synth");
+		var nbDocs     = config.getInt(MyOptions.Documents.opt.getLongOpt(), 1000);
+		var nbQueries  = config.getInt(MyOptions.Queries.opt.getLongOpt(), 1);
+		var nbBranches = config.getInt(MyOptions.QueryBranches.opt.getLongOpt(), 2);
+		var withValues = config.getDouble(MyOptions.QueryValues.opt.getLongOpt(), 0.5);
+		var nbRules    = config.getInt(MyOptions.Rules.opt.getLongOpt(), 10);
+		var time       = measures.getTime("synth", "time");
+
+		idField = config.getString(TheConfiguration.OneProperty.PartitionID.getPropertyName(), "_id");
+		time.startChrono();
+
+		var docsFile = dir.resolve(db).resolve(collection + ".json");
+		Files.createDirectories(docsFile.getParent());
+
+		// Some documents are kept to take the queries from them
+		var samples  = new ArrayList<BsonDocument>();
+		var settings = JsonWriterSettings.builder().outputMode(JsonMode.RELAXED).build();
+
+		try (var out = new PrintStream(new AsyncOutputStream(docsFile, measures.getTime("output", "blocked"))))
+		{
+			for (int i = 0; i < nbDocs; i++)
+			{
+				var doc = new BsonDocument(idField, new BsonInt32(i));
+				doc.putAll(document(0));
+				out.println(doc.toJson(settings));
+
+				if (samples.size() < nbQueries)
+					samples.add(doc);
+				else
+				{
+					var j = sampling.nextInt(i + 1);
+
+					if (j < nbQueries)
+						samples.set(j, doc);
+				}
+			}
+		}
+
+		for (int i = 0; i < nbQueries && !samples.isEmpty(); i++)
+		{
+			var file = dir.resolve(String.format("query-%d.txt", i));
+			Files.writeString(file, query(samples.get(i % samples.size()), nbBranches, withValues).toString() + "\n");
+			// Check the format
+			Query.getOneFile(file.toString());
+		}
+
+		var rulesFile = dir.resolve("rules.txt");
+
+		try (var out = new PrintStream(Files.newOutputStream(rulesFile)))
+		{
+			for (int i = 0; i < nbRules; i++)
+			{
+				var from = ruleRandom.nextInt(nbLabels);
+				var to   = (from + 1 + ruleRandom.nextInt(nbLabels - 1)) % nbLabels;
+				out.printf("%s -> %s\n", label(from), label(to));
+			}
+		}
+		Rules.get(rulesFile.toString());
+		time.stopChrono();
+
+		measures.set("synth", "documents", nbDocs);
+		measures.set("synth", "queries", samples.isEmpty() ? 0 : nbQueries);
+		measures.set("synth", "rules", nbRules);
+		measures.set("synth", "documents.bytes", Files.size(docsFile));
+		TheDemo.out().printf("%s\n", dir.toAbsolutePath());
+	}
+}
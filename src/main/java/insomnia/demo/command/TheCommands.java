@@ -25,6 +25,9 @@ public final class TheCommands
 			, new ComQuerying().getEntry() //
 			, new ComHelp().getEntry() //
 			, new ComPartition().getEntry() //
+			, new ComIndex().getEntry() //
+			, new ComInvIndex().getEntry() //
+			, new ComSynth().getEntry() //
 		);
 	}
 
@@ -11,6 +11,7 @@ import org.apache.commons.cli.Options;
 import org.apache.commons.configuration2.Configuration;
 
 import insomnia.demo.Measures;
+import insomnia.demo.data.mem.MemDataAccess;
 import insomnia.demo.data.mongodb.DataAccess;
 import insomnia.demo.input.LogicalPartition;
 import insomnia.implem.kv.data.KVLabel;
@@ -36,7 +37,9 @@ public final class DataAccesses
 		THE_FACTORY;
 
 		Map<String, Open> i = Map.of( //
-			"mongodb", DataAccess::open //
+			"mongodb", DataAccess::open, //
+			"mem", MemDataAccess::open, //
+			"invindex", MemDataAccess::openIndex //
 		);
 	}
 
@@ -45,7 +48,9 @@ public final class DataAccesses
 		THE_FACTORY;
 
 		Map<String, Options> i = Map.of( //
-			"mongodb", DataAccess.getItsConfigProperties() //
+			"mongodb", DataAccess.getItsConfigProperties(), //
+			"mem", MemDataAccess.getItsConfigProperties(), //
+			"invindex", MemDataAccess.getItsConfigProperties() //
 		);
 	}
 
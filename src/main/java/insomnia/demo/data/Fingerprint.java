@@ -0,0 +1,74 @@
+package insomnia.demo.data;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * A 128 bits digest of some canonical representation.
+ */
+public final class Fingerprint
+{
+	private static final ThreadLocal<MessageDigest> digest = ThreadLocal.withInitial(() -> {
+		try
+		{
+			return MessageDigest.getInstance("MD5");
+		}
+		catch (NoSuchAlgorithmException e)
+		{
+			throw new AssertionError(e);
+		}
+	});
+
+	private final long hi, lo;
+
+	public Fingerprint(long hi, long lo)
+	{
+		this.hi = hi;
+		this.lo = lo;
+	}
+
+	public static Fingerprint of(byte[] data)
+	{
+		var bytes = ByteBuffer.wrap(digest.get().digest(data));
+		return new Fingerprint(bytes.getLong(), bytes.getLong());
+	}
+
+	public static Fingerprint of(String data)
+	{
+		return of(data.getBytes(StandardCharsets.UTF_8));
+	}
+
+	public long getHi()
+	{
+		return hi;
+	}
+
+	public long getLo()
+	{
+		return lo;
+	}
+
+	@Override
+	public int hashCode()
+	{
+		return (int) lo;
+	}
+
+	@Override
+	public boolean equals(Object obj)
+	{
+		if (!(obj instanceof Fingerprint))
+			return false;
+
+		var f = (Fingerprint) obj;
+		return hi == f.hi && lo == f.lo;
+	}
+
+	@Override
+	public String toString()
+	{
+		return String.format("%016x%016x", hi, lo);
+	}
+}
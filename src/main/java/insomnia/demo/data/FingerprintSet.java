@@ -0,0 +1,278 @@
+package insomnia.demo.data;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * A set of {@link Fingerprint}s with a bounded memory mode.
+ * When more than {@code memoryLimit} fingerprints are stored, the set spills to an open addressing table in a memory-mapped file.
+ */
+public final class FingerprintSet implements Closeable
+{
+	private Set<Fingerprint> memory = new HashSet<>();
+
+	private int memoryLimit;
+
+	private Path spillDir;
+
+	private DiskTable disk;
+
+	/**
+	 * @param memoryLimit maximum number of fingerprints to keep in the heap, or 0 to never spill
+	 * @param spillDir    directory where to create the spill file
+	 */
+	public FingerprintSet(int memoryLimit, Path spillDir)
+	{
+		this.memoryLimit = memoryLimit;
+		this.spillDir    = spillDir;
+	}
+
+	public boolean isSpilled()
+	{
+		return null != disk;
+	}
+
+	/**
+	 * @return true if the fingerprint was not in the set
+	 */
+	public synchronized boolean add(Fingerprint fingerprint)
+	{
+		if (null != disk)
+			return disk.add(fingerprint);
+
+		if (!memory.add(fingerprint))
+			return false;
+
+		if (memoryLimit > 0 && memory.size() > memoryLimit)
+			spill();
+
+		return true;
+	}
+
+	private void spill()
+	{
+		disk = new DiskTable(spillDir, (long) Integer.highestOneBit(memory.size()) << 2);
+
+		for (var f : memory)
+			disk.add(f);
+
+		memory = null;
+	}
+
+	@Override
+	public synchronized void close()
+	{
+		if (null != disk)
+			disk.close();
+
+		disk   = null;
+		memory = new HashSet<>();
+	}
+
+	// ==========================================================================
+
+	private static final class DiskTable
+	{
+		private static final int SLOT_BYTES = 16;
+
+		private static final Object UNSAFE;
+
+		private static final Method UNMAPPER;
+
+		static
+		{
+			Object unsafe   = null;
+			Method unmapper = null;
+
+			try
+			{
+				var unsafeClass = Class.forName("sun.misc.Unsafe");
+				var field       = unsafeClass.getDeclaredField("theUnsafe");
+				field.setAccessible(true);
+				unsafe   = field.get(null);
+				unmapper = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+			}
+			catch (ReflectiveOperationException | RuntimeException e)
+			{
+				unsafe   = null;
+				unmapper = null;
+			}
+			UNSAFE   = unsafe;
+			UNMAPPER = unmapper;
+		}
+
+		// Slots per mapped segment: 1GB segments
+		private static final int SEGMENT_SHIFT = 26;
+
+		private static final long SEGMENT_MASK = (1L << SEGMENT_SHIFT) - 1;
+
+		private Path dir, file;
+
+		private MappedByteBuffer segments[];
+
+		private long capacity, size;
+
+		// (0, 0) is the empty slot marker
+		private boolean hasZero;
+
+		private DiskTable(Path dir, long capacity)
+		{
+			this.dir = dir;
+			open(Math.max(capacity, 1 << 10));
+		}
+
+		private void open(long capacity)
+		{
+			try
+			{
+				file          = Files.createTempFile(dir, "fingerprints-", ".bin");
+				this.capacity = capacity;
+				size          = 0;
+
+				try (var raf = new RandomAccessFile(file.toFile(), "rw"))
+				{
+					var bytes = capacity * SLOT_BYTES;
+					raf.setLength(bytes);
+
+					var segmentBytes = (SEGMENT_MASK + 1) * SLOT_BYTES;
+					var nbSegments   = (int) ((bytes + segmentBytes - 1) / segmentBytes);
+					segments = new MappedByteBuffer[nbSegments];
+
+					for (int i = 0; i < nbSegments; i++)
+					{
+						long offset = i * segmentBytes;
+						segments[i] = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, offset, Math.min(segmentBytes, bytes - offset));
+					}
+				}
+				file.toFile().deleteOnExit();
+			}
+			catch (IOException e)
+			{
+				throw new UncheckedIOException(e);
+			}
+		}
+
+		private long getHi(long slot)
+		{
+			return segments[(int) (slot >>> SEGMENT_SHIFT)].getLong((int) ((slot & SEGMENT_MASK) * SLOT_BYTES));
+		}
+
+		private long getLo(long slot)
+		{
+			return segments[(int) (slot >>> SEGMENT_SHIFT)].getLong((int) ((slot & SEGMENT_MASK) * SLOT_BYTES + 8));
+		}
+
+		private void set(long slot, long hi, long lo)
+		{
+			var segment = segments[(int) (slot >>> SEGMENT_SHIFT)];
+			var offset  = (int) ((slot & SEGMENT_MASK) * SLOT_BYTES);
+			segment.putLong(offset, hi);
+			segment.putLong(offset + 8, lo);
+		}
+
+		boolean add(Fingerprint fingerprint)
+		{
+			return add(fingerprint.getHi(), fingerprint.getLo());
+		}
+
+		private boolean add(long hi, long lo)
+		{
+			if (hi == 0 && lo == 0)
+			{
+				if (hasZero)
+					return false;
+
+				return hasZero = true;
+			}
+			var mask = capacity - 1;
+
+			for (long slot = lo & mask;; slot = (slot + 1) & mask)
+			{
+				var shi = getHi(slot);
+				var slo = getLo(slot);
+
+				if (shi == 0 && slo == 0)
+				{
+					set(slot, hi, lo);
+
+					if (++size > capacity >> 1)
+						grow();
+
+					return true;
+				}
+				if (shi == hi && slo == lo)
+					return false;
+			}
+		}
+
+		private void grow()
+		{
+			var oldFile     = file;
+			var oldSegments = segments;
+			var oldCapacity = capacity;
+
+			open(capacity << 1);
+
+			for (long slot = 0; slot < oldCapacity; slot++)
+			{
+				var segment = oldSegments[(int) (slot >>> SEGMENT_SHIFT)];
+				var offset  = (int) ((slot & SEGMENT_MASK) * SLOT_BYTES);
+				var hi      = segment.getLong(offset);
+				var lo      = segment.getLong(offset + 8);
+
+				if (hi != 0 || lo != 0)
+					add(hi, lo);
+			}
+			unmap(oldSegments);
+			delete(oldFile);
+		}
+
+		void close()
+		{
+			unmap(segments);
+			segments = null;
+			delete(file);
+		}
+
+		/**
+		 * Release the mappings without waiting for the GC, with the cleaner of sun.misc.Unsafe (jdk.unsupported) when it is available.
+		 */
+		private static void unmap(MappedByteBuffer segments[])
+		{
+			if (null == UNMAPPER)
+				return;
+
+			try
+			{
+				for (var segment : segments)
+					UNMAPPER.invoke(UNSAFE, segment);
+			}
+			catch (ReflectiveOperationException e)
+			{
+				// Unmapped by the GC
+			}
+		}
+
+		private static void delete(Path file)
+		{
+			try
+			{
+				Files.deleteIfExists(file);
+			}
+			catch (IOException e)
+			{
+				// The file is deleted on exit anyway
+			}
+		}
+	}
+}
@@ -2,6 +2,10 @@ package insomnia.demo.data;
 
 import java.io.PrintStream;
 import java.io.PrintWriter;
+import java.util.Collection;
+import java.util.List;
+import java.util.OptionalLong;
+import java.util.Set;
 import java.util.function.Function;
 import java.util.function.Predicate;
 import java.util.stream.Stream;
@@ -28,30 +32,92 @@ public interface IDataAccess<VAL, LBL>
 		CPUTimeBenchmark getTime();
 	}
 
+	/**
+	 * A count of answers made by the data source.
+	 */
+	public static interface aggregateStats
+	{
+		long getNbAnswers();
+
+		/**
+		 * @return the id of the record whose answers are counted, or empty if the count is for all the answers of a batch
+		 */
+		OptionalLong getRecordId();
+	}
+
 	void setQueryFilter(Predicate<ITree<VAL, LBL>> filter);
 
+	/**
+	 * Keep only the empty queries, or only the non empty ones; the emptiness is checked by batches before the execution.
+	 * 
+	 * @param keepEmpty null to not filter the queries
+	 */
+	void setEmptinessFilter(Boolean keepEmpty);
+
 	void setLogicalPartition(LogicalPartition partition);
 
 	LogicalPartition getLogicalPartition();
 
+	/**
+	 * Declare the fields of the records needed by the caller: the other fields may be missing from the returned records.
+	 * The record id is always available; an empty collection asks only for the record ids and null for the whole records.
+	 */
+	void setProjection(Collection<String> fields);
+
 	String getCollectionName();
 
+	/**
+	 * @return true if a terminal node of a query must be a terminal node of its answers (leaf.checkTerminal)
+	 */
+	boolean getCheckTerminalLeaf();
+
 	Stream<Object> all();
 
+	/**
+	 * The records of {@link #all()} as trees, decoded as they are read: a tree is not kept by the data access.
+	 */
+	Stream<ITree<VAL, LBL>> allTrees();
+
 	boolean hasAnswer(ITree<Object, KVLabel> query);
 
+	/**
+	 * Check the emptiness of many queries by batches.
+	 * 
+	 * @return for each query in order, its native query and true if it has an answer
+	 */
+	Stream<Triple<ITree<VAL, LBL>, Object, Boolean>> hasAnswers(Stream<ITree<VAL, LBL>> queries);
+
 	Stream<Object> explain(Stream<ITree<VAL, LBL>> queries);
 
 	Stream<Object> execute(Stream<ITree<VAL, LBL>> queries);
 
 	Stream<Object> executeNatives(Stream<Object> nativeQueries);
 
+	/**
+	 * Count the answers inside the data source instead of returning them.
+	 * 
+	 * @return records to read with {@link #aggregateStats(Object)}
+	 */
+	Stream<Object> aggregate(Stream<ITree<VAL, LBL>> queries);
+
+	aggregateStats aggregateStats(Object record);
+
 	Stream<Triple<ITree<VAL, LBL>, Object, Stream<Object>>> executeEach(Stream<ITree<VAL, LBL>> queries);
 
 	ITree<VAL, LBL> nativeToTree(Object nativeRecord);
 
 	Object treeToQNative(ITree<VAL, LBL> query);
 
+	/**
+	 * The field paths of the records tested by a native query, for each branch of its disjunction.
+	 */
+	List<Set<String>> nativeQueryPaths(Object nativeQuery);
+
+	/**
+	 * Create an index on some fields of the records; the last field may be a wildcard path ending with {@link IndexAdvisor#WILDCARD}.
+	 */
+	void createIndex(List<String> fields);
+
 	long getRecordId(Object record);
 
 	explainStats explainStats(Object record);
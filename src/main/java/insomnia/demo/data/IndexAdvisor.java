@@ -0,0 +1,193 @@
+package insomnia.demo.data;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Choose the indexes serving the most query branches, a branch being a conjunction of conditions on some field paths.
+ * An index serves a branch if its first field is one of the paths of the branch; the server can then use it for the branch instead of a scan.
+ * The indexes are chosen greedily (set cover): at each step the index serving the most unserved branches is taken,
+ * a compound index being preferred to a single-field one when it also contains more of the paths of the new branches.
+ */
+public final class IndexAdvisor
+{
+	public static final String WILDCARD = "$**";
+
+	public static final class Index
+	{
+		private List<String> fields;
+
+		private int nbBranches;
+
+		private Index(List<String> fields, int nbBranches)
+		{
+			this.fields     = fields;
+			this.nbBranches = nbBranches;
+		}
+
+		public List<String> getFields()
+		{
+			return fields;
+		}
+
+		/**
+		 * @return the number of branches served by this index and not by the previous advised ones
+		 */
+		public int getNbBranches()
+		{
+			return nbBranches;
+		}
+
+		@Override
+		public String toString()
+		{
+			return String.format("%s(%d)", String.join(",", fields), nbBranches);
+		}
+	}
+
+	// ==========================================================================
+
+	private boolean compound, wildcard;
+
+	private int nbBranches;
+
+	// The branches having a condition on a path
+	private Map<String, BitSet> pathBranches = new HashMap<>();
+
+	private Set<List<String>> pairs = new HashSet<>();
+
+	/**
+	 * @param compound propose compound indexes of two fields
+	 * @param wildcard propose wildcard indexes on the top-level fields
+	 */
+	public IndexAdvisor(boolean compound, boolean wildcard)
+	{
+		this.compound = compound;
+		this.wildcard = wildcard;
+	}
+
+	public void addBranch(Set<String> paths)
+	{
+		var branch = nbBranches++;
+
+		for (var p : paths)
+			pathBranches.computeIfAbsent(p, k -> new BitSet()).set(branch);
+
+		if (compound)
+			for (var a : paths)
+				for (var b : paths)
+					if (!a.equals(b))
+						pairs.add(List.of(a, b));
+	}
+
+	public int getNbBranches()
+	{
+		return nbBranches;
+	}
+
+	// ==========================================================================
+
+	private static final class Candidate
+	{
+		private List<String> fields;
+
+		// The branches using the index, and the ones having a condition on all its fields
+		private BitSet served, full;
+
+		private Candidate(List<String> fields, BitSet served, BitSet full)
+		{
+			this.fields = fields;
+			this.served = served;
+			this.full   = full;
+		}
+
+		private boolean isWildcard()
+		{
+			return fields.get(0).endsWith(WILDCARD);
+		}
+	}
+
+	private List<Candidate> candidates()
+	{
+		var ret = new ArrayList<Candidate>();
+
+		for (var e : pathBranches.entrySet())
+			ret.add(new Candidate(List.of(e.getKey()), e.getValue(), e.getValue()));
+
+		for (var pair : pairs)
+		{
+			var served = pathBranches.get(pair.get(0));
+			var full   = (BitSet) served.clone();
+			full.and(pathBranches.get(pair.get(1)));
+			ret.add(new Candidate(pair, served, full));
+		}
+
+		if (wildcard)
+		{
+			var tops = new HashMap<String, BitSet>();
+
+			for (var e : pathBranches.entrySet())
+			{
+				var path = e.getKey();
+				var dot  = path.indexOf('.');
+				var top  = dot == -1 ? path : path.substring(0, dot);
+				tops.computeIfAbsent(top + "." + WILDCARD, k -> new BitSet()).or(e.getValue());
+			}
+			for (var e : tops.entrySet())
+				ret.add(new Candidate(List.of(e.getKey()), e.getValue(), e.getValue()));
+		}
+		return ret;
+	}
+
+	private static int gain(BitSet branches, BitSet covered)
+	{
+		var ret = (BitSet) branches.clone();
+		ret.andNot(covered);
+		return ret.cardinality();
+	}
+
+	/**
+	 * @return the indexes to create, at most {@code max}, in decreasing order of utility
+	 */
+	public List<Index> advise(int max)
+	{
+		var candidates = candidates();
+		var covered    = new BitSet();
+		var ret        = new ArrayList<Index>();
+
+		// Prefer the compound index having the most branches with a condition on its two fields, then the simplest index
+		Comparator<Candidate> tieBreak = Comparator.<Candidate>comparingInt(c -> c.fields.size() > 1 ? gain(c.full, covered) : 0) //
+			.thenComparing(c -> !c.isWildcard()) //
+			.thenComparingInt(c -> -c.fields.size()) //
+			.thenComparing(c -> c.fields.toString(), Comparator.reverseOrder());
+
+		while (ret.size() < max)
+		{
+			Candidate best     = null;
+			int       bestGain = 0;
+
+			for (var c : candidates)
+			{
+				var gain = gain(c.served, covered);
+
+				if (gain > bestGain || (gain == bestGain && gain > 0 && tieBreak.compare(c, best) > 0))
+				{
+					best     = c;
+					bestGain = gain;
+				}
+			}
+			if (null == best)
+				break;
+
+			covered.or(best.served);
+			ret.add(new Index(best.fields, bestGain));
+		}
+		return ret;
+	}
+}
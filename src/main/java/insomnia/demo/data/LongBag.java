@@ -0,0 +1,238 @@
+package insomnia.demo.data;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+
+/**
+ * A multiset of longs stored like a Roaring bitmap: the ids are grouped by their 48 high bits in containers of their 16 low bits,
+ * a sorted array of chars while the container is sparse, a bitmap when it is dense.
+ * A count is only stored for the containers having an id added more than once, so no object is allocated by id.
+ * The ids are streamed in increasing order.
+ */
+public final class LongBag
+{
+	private static final int ARRAY_MAX = 4096, BITMAP_SIZE = 1 << 16;
+
+	private static final class Container
+	{
+		// The sorted low bits while the container is sparse, then null
+		private char values[] = new char[4];
+
+		// The bitmap of the low bits when the container is dense
+		private long bits[];
+
+		private int size;
+
+		// count - 1 by index in values or by low bits for a bitmap, null while all the counts are 1
+		private int extraCounts[];
+
+		/**
+		 * @return true if the value was not in the container
+		 */
+		boolean add(char low)
+		{
+			if (null != bits)
+				return addBitmap(low);
+
+			var i = Arrays.binarySearch(values, 0, size, low);
+
+			if (i >= 0)
+			{
+				if (null == extraCounts)
+					extraCounts = new int[values.length];
+
+				extraCounts[i]++;
+				return false;
+			}
+			i = -i - 1;
+
+			if (size == ARRAY_MAX)
+			{
+				toBitmap();
+				return addBitmap(low);
+			}
+			if (size == values.length)
+			{
+				values = Arrays.copyOf(values, size * 2);
+
+				if (null != extraCounts)
+					extraCounts = Arrays.copyOf(extraCounts, size * 2);
+			}
+			System.arraycopy(values, i, values, i + 1, size - i);
+			values[i] = low;
+
+			if (null != extraCounts)
+			{
+				System.arraycopy(extraCounts, i, extraCounts, i + 1, size - i);
+				extraCounts[i] = 0;
+			}
+			size++;
+			return true;
+		}
+
+		private boolean addBitmap(char low)
+		{
+			var word = low >>> 6;
+			var mask = 1L << low;
+
+			if (0 != (bits[word] & mask))
+			{
+				if (null == extraCounts)
+					extraCounts = new int[BITMAP_SIZE];
+
+				extraCounts[low]++;
+				return false;
+			}
+			bits[word] |= mask;
+			size++;
+			return true;
+		}
+
+		private void toBitmap()
+		{
+			bits = new long[BITMAP_SIZE / Long.SIZE];
+
+			for (int i = 0; i < size; i++)
+				bits[values[i] >>> 6] |= 1L << values[i];
+
+			if (null != extraCounts)
+			{
+				var counts = new int[BITMAP_SIZE];
+
+				for (int i = 0; i < size; i++)
+					counts[values[i]] = extraCounts[i];
+
+				extraCounts = counts;
+			}
+			values = null;
+		}
+
+		int getCount(char low)
+		{
+			if (null != bits)
+			{
+				if (0 == (bits[low >>> 6] & (1L << low)))
+					return 0;
+
+				return 1 + (null == extraCounts ? 0 : extraCounts[low]);
+			}
+			var i = Arrays.binarySearch(values, 0, size, low);
+
+			if (i < 0)
+				return 0;
+
+			return 1 + (null == extraCounts ? 0 : extraCounts[i]);
+		}
+
+		IntStream lows()
+		{
+			if (null != bits)
+				return BitSet.valueOf(bits).stream();
+
+			return IntStream.range(0, size).map(i -> values[i]);
+		}
+	}
+
+	// ==========================================================================
+
+	private TreeMap<Long, Container> containers = new TreeMap<>();
+
+	// The last used container, the ids being often added in order
+	private long lastHigh;
+
+	private Container last;
+
+	private long size, uniqueSize;
+
+	private Container container(long high)
+	{
+		if (null != last && lastHigh == high)
+			return last;
+
+		last     = containers.computeIfAbsent(high, k -> new Container());
+		lastHigh = high;
+		return last;
+	}
+
+	/**
+	 * @return true if the id was not in the bag
+	 */
+	public boolean add(long id)
+	{
+		size++;
+
+		if (!container(id >> 16).add((char) id))
+			return false;
+
+		uniqueSize++;
+		return true;
+	}
+
+	public int getCount(long id)
+	{
+		var container = containers.get(id >> 16);
+		return null == container ? 0 : container.getCount((char) id);
+	}
+
+	public boolean contains(long id)
+	{
+		return getCount(id) > 0;
+	}
+
+	public boolean isEmpty()
+	{
+		return 0 == size;
+	}
+
+	/**
+	 * @return the number of ids, with their multiplicity
+	 */
+	public long size()
+	{
+		return size;
+	}
+
+	/**
+	 * @return the number of distinct ids
+	 */
+	public long uniqueSize()
+	{
+		return uniqueSize;
+	}
+
+	// ==========================================================================
+
+	private static LongStream ids(Map.Entry<Long, Container> entry)
+	{
+		var base = entry.getKey() << 16;
+		return entry.getValue().lows().mapToLong(low -> base | low);
+	}
+
+	/**
+	 * @return the distinct ids in increasing order
+	 */
+	public LongStream uniqueStream()
+	{
+		return containers.entrySet().stream().flatMapToLong(LongBag::ids);
+	}
+
+	/**
+	 * @return the ids in increasing order, each one repeated according to its count
+	 */
+	public LongStream stream()
+	{
+		return containers.entrySet().stream().flatMapToLong(e -> {
+			var base      = e.getKey() << 16;
+			var container = e.getValue();
+
+			if (null == container.extraCounts)
+				return ids(e);
+
+			return container.lows().asLongStream().flatMap(low -> LongStream.generate(() -> base | low).limit(container.getCount((char) low)));
+		});
+	}
+}
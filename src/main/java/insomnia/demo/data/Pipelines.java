@@ -0,0 +1,687 @@
+package insomnia.demo.data;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Streams whose elements are produced by another thread ahead of their consumption.
+ */
+public final class Pipelines
+{
+	private Pipelines()
+	{
+		throw new AssertionError();
+	}
+
+	private static final Object END = new Object();
+
+	private static final class Failure
+	{
+		private final Throwable cause;
+
+		private Failure(Throwable cause)
+		{
+			this.cause = cause;
+		}
+	}
+
+	private static void rethrow(Failure failure)
+	{
+		var cause = failure.cause;
+
+		if (cause instanceof RuntimeException)
+			throw (RuntimeException) cause;
+		if (cause instanceof Error)
+			throw (Error) cause;
+
+		throw new IllegalStateException(cause);
+	}
+
+	// ==========================================================================
+
+	/**
+	 * Consume {@code source} in a producer thread that stays at most {@code capacity} elements ahead of the returned stream.
+	 * The producer starts with the first consumption; closing the returned stream stops it and gives the pending elements to {@code discard}.
+	 */
+	public static <T> Stream<T> prefetch(Stream<T> source, int capacity, String name, Consumer<? super T> discard)
+	{
+		var pipeline = new Prefetch<T>(source, capacity, name, discard);
+		return StreamSupport.stream(pipeline, false).onClose(pipeline::close);
+	}
+
+	private static final class Prefetch<T> extends Spliterators.AbstractSpliterator<T>
+	{
+		private final Stream<T> source;
+
+		private final BlockingQueue<Object> queue;
+
+		private final Thread producer;
+
+		private final Consumer<? super T> discard;
+
+		private boolean started, ended;
+
+		private volatile boolean closed;
+
+		private Prefetch(Stream<T> source, int capacity, String name, Consumer<? super T> discard)
+		{
+			super(Long.MAX_VALUE, Spliterator.ORDERED);
+			this.source  = source;
+			this.discard = discard;
+			queue        = new ArrayBlockingQueue<>(capacity);
+			producer     = new Thread(this::produce, name);
+			producer.setDaemon(true);
+		}
+
+		private void produce()
+		{
+			try (source)
+			{
+				var it = source.iterator();
+
+				while (!closed && it.hasNext())
+					queue.put(it.next());
+
+				queue.put(END);
+			}
+			catch (InterruptedException e)
+			{
+				// Closed by the consumer
+			}
+			catch (Throwable e)
+			{
+				try
+				{
+					queue.put(new Failure(e));
+				}
+				catch (InterruptedException e1)
+				{
+				}
+			}
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		public boolean tryAdvance(Consumer<? super T> action)
+		{
+			if (ended)
+				return false;
+			if (!started)
+			{
+				started = true;
+				producer.start();
+			}
+			Object item;
+
+			try
+			{
+				item = queue.take();
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException(e);
+			}
+
+			if (item == END)
+			{
+				ended = true;
+				return false;
+			}
+			if (item instanceof Failure)
+			{
+				ended = true;
+				rethrow((Failure) item);
+			}
+			action.accept((T) item);
+			return true;
+		}
+
+		private void close()
+		{
+			closed = true;
+
+			if (!started)
+			{
+				source.close();
+				return;
+			}
+			producer.interrupt();
+
+			try
+			{
+				// Keep room in the queue so that the producer cannot block
+				while (producer.isAlive())
+				{
+					discardQueue();
+					producer.join(10);
+				}
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+			}
+			discardQueue();
+		}
+
+		@SuppressWarnings("unchecked")
+		private void discardQueue()
+		{
+			Object item;
+
+			while (null != (item = queue.poll()))
+				if (item != END && !(item instanceof Failure))
+					discard.accept((T) item);
+		}
+	}
+
+	// ==========================================================================
+
+	/**
+	 * The processing of the elements in one thread of {@link Pipelines#parallel}.
+	 * A worker is created and ended in its thread, so it can hold thread-confined state.
+	 */
+	public interface Worker<T, R>
+	{
+		R process(T item) throws Exception;
+
+		default void end()
+		{
+		}
+	}
+
+	/**
+	 * Process the elements of {@code source} with {@code nbWorkers} threads.
+	 * A producer thread consumes {@code source} and at most {@code capacity} elements are in the pipeline, from their production to the consumption of their result.
+	 * Idle workers park on the queue of elements.
+	 * 
+	 * @param ordered if true the results are returned in the order of {@code source}, else in their order of completion
+	 * @param workers create the worker of a thread from its number in [0, nbWorkers[
+	 * @param onEnd   called by the consumer when all the workers are ended
+	 */
+	public static <T, R> Stream<R> parallel(Stream<T> source, int nbWorkers, int capacity, boolean ordered, String name, IntFunction<? extends Worker<T, R>> workers, Runnable onEnd)
+	{
+		var pipeline = new Parallel<T, R>(source, nbWorkers, capacity, ordered, name, workers, onEnd);
+		return StreamSupport.stream(pipeline, false).onClose(pipeline::close);
+	}
+
+	private static final class Item
+	{
+		private final long seq;
+
+		private final Object value;
+
+		private Item(long seq, Object value)
+		{
+			this.seq   = seq;
+			this.value = value;
+		}
+	}
+
+	private static final class Parallel<T, R> extends Spliterators.AbstractSpliterator<R>
+	{
+		private final Stream<T> source;
+
+		private final boolean ordered;
+
+		private final Runnable onEnd;
+
+		private final Semaphore permits;
+
+		private final BlockingQueue<Object> input = new LinkedBlockingQueue<>();
+
+		private final BlockingQueue<Object> output = new LinkedBlockingQueue<>();
+
+		private final Map<Long, Object> reorder = new HashMap<>();
+
+		private final List<Thread> threads = new ArrayList<>();
+
+		private long nextSeq;
+
+		private int nbEnded;
+
+		private boolean started, ended;
+
+		private volatile boolean closed;
+
+		private Parallel(Stream<T> source, int nbWorkers, int capacity, boolean ordered, String name, IntFunction<? extends Worker<T, R>> workers, Runnable onEnd)
+		{
+			super(Long.MAX_VALUE, ordered ? Spliterator.ORDERED : 0);
+			this.source  = source;
+			this.ordered = ordered;
+			this.onEnd   = onEnd;
+			permits      = new Semaphore(capacity);
+
+			threads.add(new Thread(() -> produce(nbWorkers), name));
+
+			for (int i = 0; i < nbWorkers; i++)
+			{
+				var workerNb = i;
+				threads.add(new Thread(() -> work(workers, workerNb), name + "-" + i));
+			}
+
+			for (var t : threads)
+				t.setDaemon(true);
+		}
+
+		private void produce(int nbWorkers)
+		{
+			try (source)
+			{
+				var  it  = source.iterator();
+				long seq = 0;
+
+				while (!closed && it.hasNext())
+				{
+					permits.acquire();
+					input.put(new Item(seq++, it.next()));
+				}
+			}
+			catch (InterruptedException e)
+			{
+				return;
+			}
+			catch (Throwable e)
+			{
+				output.add(new Failure(e));
+			}
+
+			for (int i = 0; i < nbWorkers; i++)
+				input.add(END);
+		}
+
+		@SuppressWarnings("unchecked")
+		private void work(IntFunction<? extends Worker<T, R>> workers, int workerNb)
+		{
+			try
+			{
+				var worker = workers.apply(workerNb);
+
+				try
+				{
+					for (;;)
+					{
+						var item = input.take();
+
+						if (item == END)
+							break;
+
+						var seqItem = (Item) item;
+						output.add(new Item(seqItem.seq, worker.process((T) seqItem.value)));
+					}
+				}
+				finally
+				{
+					worker.end();
+				}
+			}
+			catch (InterruptedException e)
+			{
+				// Closed by the consumer
+			}
+			catch (Throwable e)
+			{
+				output.add(new Failure(e));
+			}
+			output.add(END);
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		public boolean tryAdvance(Consumer<? super R> action)
+		{
+			if (ended)
+				return false;
+			if (!started)
+			{
+				started = true;
+				threads.forEach(Thread::start);
+			}
+
+			for (;;)
+			{
+				if (ordered && reorder.containsKey(nextSeq))
+				{
+					var value = reorder.remove(nextSeq++);
+					permits.release();
+					action.accept((R) value);
+					return true;
+				}
+				if (nbEnded == threads.size() - 1)
+				{
+					ended = true;
+					onEnd.run();
+					return false;
+				}
+				Object item;
+
+				try
+				{
+					item = output.take();
+				}
+				catch (InterruptedException e)
+				{
+					Thread.currentThread().interrupt();
+					throw new IllegalStateException(e);
+				}
+
+				if (item == END)
+					nbEnded++;
+				else if (item instanceof Failure)
+				{
+					ended = true;
+					close();
+					rethrow((Failure) item);
+				}
+				else
+				{
+					var result = (Item) item;
+
+					if (ordered)
+						reorder.put(result.seq, result.value);
+					else
+					{
+						permits.release();
+						action.accept((R) result.value);
+						return true;
+					}
+				}
+			}
+		}
+
+		private void close()
+		{
+			closed = true;
+
+			if (!started)
+			{
+				source.close();
+				return;
+			}
+
+			for (var t : threads)
+				t.interrupt();
+
+			try
+			{
+				for (var t : threads)
+					t.join();
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+			}
+			input.clear();
+			output.clear();
+			reorder.clear();
+		}
+	}
+
+	// ==========================================================================
+
+	/**
+	 * Give every element of {@code source} to {@code nbBranches} branches, each one running in its own thread, and merge their results in their order of completion.
+	 * Each branch input and the merged output are bounded by {@code capacity} elements.
+	 * 
+	 * @param branches make the results of a branch from its number and its stream of elements
+	 * @param onEnd    called by the consumer when all the branches are ended
+	 */
+	public static <T, R> Stream<R> scatterGather(Stream<T> source, int nbBranches, int capacity, String name, BiFunction<Integer, Stream<T>, Stream<R>> branches, Runnable onEnd)
+	{
+		var pipeline = new ScatterGather<T, R>(source, nbBranches, capacity, name, branches, onEnd);
+		return StreamSupport.stream(pipeline, false).onClose(pipeline::close);
+	}
+
+	private static final class ScatterGather<T, R> extends Spliterators.AbstractSpliterator<R>
+	{
+		private final Stream<T> source;
+
+		private final Runnable onEnd;
+
+		private final List<BlockingQueue<Object>> inputs = new ArrayList<>();
+
+		private final BlockingQueue<Object> output;
+
+		private final List<Thread> threads = new ArrayList<>();
+
+		// Set by a branch when it has taken the END of its input
+		private final boolean inputEnded[];
+
+		private int nbEnded;
+
+		private boolean started, ended;
+
+		private volatile boolean closed;
+
+		private ScatterGather(Stream<T> source, int nbBranches, int capacity, String name, BiFunction<Integer, Stream<T>, Stream<R>> branches, Runnable onEnd)
+		{
+			super(Long.MAX_VALUE, 0);
+			this.source = source;
+			this.onEnd  = onEnd;
+			output      = new ArrayBlockingQueue<>(capacity * nbBranches);
+			inputEnded  = new boolean[nbBranches];
+
+			threads.add(new Thread(this::produce, name));
+
+			for (int i = 0; i < nbBranches; i++)
+			{
+				var branchNb = i;
+				inputs.add(new ArrayBlockingQueue<>(capacity));
+				threads.add(new Thread(() -> branch(branches, branchNb), name + "-" + i));
+			}
+
+			for (var t : threads)
+				t.setDaemon(true);
+		}
+
+		private void produce()
+		{
+			try (source)
+			{
+				var it = source.iterator();
+
+				while (!closed && it.hasNext())
+				{
+					var item = it.next();
+
+					for (var input : inputs)
+						input.put(item);
+				}
+
+				for (var input : inputs)
+					input.put(END);
+			}
+			catch (InterruptedException e)
+			{
+				// Closed by the consumer
+			}
+			catch (Throwable e)
+			{
+				// The consumer keeps taking the outputs and the branches their inputs, so the puts cannot block forever
+				try
+				{
+					output.put(new Failure(e));
+
+					for (var input : inputs)
+						input.put(END);
+				}
+				catch (InterruptedException e2)
+				{
+					// Closed by the consumer
+				}
+			}
+		}
+
+		@SuppressWarnings("unchecked")
+		private Stream<T> branchInput(int branchNb)
+		{
+			var input = inputs.get(branchNb);
+
+			var elements = new Spliterators.AbstractSpliterator<T>(Long.MAX_VALUE, Spliterator.ORDERED)
+			{
+				private boolean ended;
+
+				@Override
+				public boolean tryAdvance(Consumer<? super T> action)
+				{
+					if (ended)
+						return false;
+
+					Object item;
+
+					try
+					{
+						item = input.take();
+					}
+					catch (InterruptedException e)
+					{
+						Thread.currentThread().interrupt();
+						throw new IllegalStateException(e);
+					}
+
+					if (item == END)
+					{
+						ended                = true;
+						inputEnded[branchNb] = true;
+						return false;
+					}
+					action.accept((T) item);
+					return true;
+				}
+			};
+			return StreamSupport.stream(elements, false);
+		}
+
+		private void branch(BiFunction<Integer, Stream<T>, Stream<R>> branches, int branchNb)
+		{
+			var input = inputs.get(branchNb);
+
+			try
+			{
+				try (var results = branches.apply(branchNb, branchInput(branchNb)))
+				{
+					var it = results.iterator();
+
+					while (!closed && it.hasNext())
+						output.put(it.next());
+
+					output.put(END);
+				}
+				catch (InterruptedException e)
+				{
+					// Closed by the consumer
+					return;
+				}
+				catch (Throwable e)
+				{
+					if (closed)
+						return;
+
+					output.put(new Failure(e));
+				}
+				// A branch ended early or failed still takes its inputs so that the producer is never blocked
+				if (!inputEnded[branchNb])
+					while (!closed && END != input.take())
+						;
+			}
+			catch (InterruptedException e)
+			{
+				// Closed by the consumer
+			}
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		public boolean tryAdvance(Consumer<? super R> action)
+		{
+			if (ended)
+				return false;
+			if (!started)
+			{
+				started = true;
+				threads.forEach(Thread::start);
+			}
+
+			for (;;)
+			{
+				if (nbEnded == inputs.size())
+				{
+					ended = true;
+					onEnd.run();
+					return false;
+				}
+				Object item;
+
+				try
+				{
+					item = output.take();
+				}
+				catch (InterruptedException e)
+				{
+					Thread.currentThread().interrupt();
+					throw new IllegalStateException(e);
+				}
+
+				if (item == END)
+					nbEnded++;
+				else if (item instanceof Failure)
+				{
+					ended = true;
+					close();
+					rethrow((Failure) item);
+				}
+				else
+				{
+					action.accept((R) item);
+					return true;
+				}
+			}
+		}
+
+		private void close()
+		{
+			closed = true;
+
+			if (!started)
+			{
+				source.close();
+				return;
+			}
+
+			for (var t : threads)
+				t.interrupt();
+
+			try
+			{
+				for (var t : threads)
+				{
+					// Keep room in the queues so that the threads cannot block
+					while (t.isAlive())
+					{
+						output.clear();
+						inputs.forEach(BlockingQueue::clear);
+						t.join(10);
+					}
+				}
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+			}
+			output.clear();
+		}
+	}
+}
@@ -0,0 +1,316 @@
+package insomnia.demo.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import insomnia.data.INode;
+import insomnia.data.ITree;
+import insomnia.implem.kv.data.KVLabel;
+import insomnia.implem.kv.data.KVValues;
+import insomnia.lib.numeric.MultiInterval;
+
+/**
+ * The reformulations of a query as a bottom-up tree automaton evaluated in one pass over each document.
+ * The subtrees of the reformulations are hash-consed: a state is a distinct subtree (its incoming label, value, terminal flag and set of child states),
+ * so the subtrees common to several reformulations are checked once by document node.
+ * A document node reached by a label is in the states of this label whose value is satisfied and whose child states are all reached by some child of the node;
+ * a reformulation matches a document if the root of the document is in the state of its root.
+ * <p>
+ * The states are indexed by their child states, and the leaf states by their label and value:
+ * a document node only examines the parents of the states reached by its children and the leaf states of its own label and value,
+ * so the cost does not depend on the number of reformulations but on the states actually reached.
+ * {@link #matches(ITree)} is not thread-safe.
+ */
+public final class ReformulationDag
+{
+	private static final int[] NO_STATES = new int[0];
+
+	/**
+	 * The leaf states of a label.
+	 */
+	private static final class Leaves
+	{
+		private Map<Object, int[]> byValue = new HashMap<>();
+
+		// The states without value or with an interval
+		private int[] others = NO_STATES;
+	}
+
+	private List<String> stateLabel = new ArrayList<>();
+
+	private List<Object> stateValue = new ArrayList<>();
+
+	private BitSet stateTerminal = new BitSet();
+
+	private List<int[]> stateChildren = new ArrayList<>();
+
+	// The states having a state as child
+	private List<int[]> stateParents = new ArrayList<>();
+
+	// The key of a subtree -> its state
+	private Map<String, Integer> states = new HashMap<>();
+
+	private Map<String, Leaves> labelLeaves = new HashMap<>();
+
+	// The labels having a state, to not walk the other subtrees of a document
+	private Set<String> labels = new HashSet<>();
+
+	// The root states without child
+	private int[] rootLeaves = NO_STATES;
+
+	// The reformulations having a root state
+	private Map<Integer, List<Integer>> rootReformulations = new HashMap<>();
+
+	private int nbReformulations;
+
+	private boolean checkTerminal;
+
+	// The number of reached children of the candidate parents of a node, reset after each node
+	private int[] counts = new int[0];
+
+	/**
+	 * @param checkTerminal a terminal node of a reformulation must be a terminal node of the document, as with leaf.checkTerminal
+	 */
+	public ReformulationDag(boolean checkTerminal)
+	{
+		this.checkTerminal = checkTerminal;
+	}
+
+	/**
+	 * @return the index of the reformulation
+	 */
+	public int add(ITree<Object, KVLabel> reformulation)
+	{
+		var ret  = nbReformulations++;
+		var root = state(reformulation, reformulation.getRoot(), null);
+		rootReformulations.computeIfAbsent(root, k -> new ArrayList<>()).add(ret);
+		return ret;
+	}
+
+	private static int[] append(int[] states, int state)
+	{
+		var ret = Arrays.copyOf(states, states.length + 1);
+		ret[states.length] = state;
+		return ret;
+	}
+
+	private int state(ITree<Object, KVLabel> tree, INode<Object, KVLabel> node, String label)
+	{
+		var children = tree.getChildren(node).stream() //
+			.mapToInt(e -> state(tree, e.getChild(), e.getLabel().asString())) //
+			.sorted().distinct().toArray();
+
+		var value    = value(node.getValue());
+		var terminal = node.isTerminal();
+		// The type of the value distinguishes a string "1.0" from the number 1
+		var type     = null == value ? "" : value.getClass().getName();
+		var key      = String.join("\0", String.valueOf(label), type, String.valueOf(value), Boolean.toString(terminal), Arrays.toString(children));
+
+		return states.computeIfAbsent(key, k -> {
+			var ret = stateLabel.size();
+			stateLabel.add(label);
+			stateValue.add(value);
+			stateChildren.add(children);
+			stateParents.add(NO_STATES);
+
+			if (terminal)
+				stateTerminal.set(ret);
+
+			for (var c : children)
+				stateParents.set(c, append(stateParents.get(c), ret));
+
+			if (null != label)
+				labels.add(label);
+
+			if (children.length > 0)
+				return ret;
+
+			if (null == label)
+				rootLeaves = append(rootLeaves, ret);
+			else
+			{
+				var leaves = labelLeaves.computeIfAbsent(label, l -> new Leaves());
+
+				if (null == value || value instanceof MultiInterval)
+					leaves.others = append(leaves.others, ret);
+				else
+					leaves.byValue.put(value, append(leaves.byValue.getOrDefault(value, NO_STATES), ret));
+			}
+			return ret;
+		});
+	}
+
+	private static Object value(Object value)
+	{
+		if (null == value || KVValues.interpretation().isAny(value))
+			return null;
+		if (value instanceof Number)
+			return Double.valueOf(((Number) value).doubleValue());
+
+		return value;
+	}
+
+	public int getNbReformulations()
+	{
+		return nbReformulations;
+	}
+
+	public int getNbStates()
+	{
+		return stateLabel.size();
+	}
+
+	// ==========================================================================
+
+	/**
+	 * @return the indexes of the reformulations matching the document
+	 */
+	public BitSet matches(ITree<Object, KVLabel> document)
+	{
+		if (counts.length < stateLabel.size())
+			counts = new int[stateLabel.size()];
+
+		var ret = new BitSet();
+
+		for (var s : reached(document, document.getRoot(), null, rootLeaves))
+			rootReformulations.getOrDefault(s, List.of()).forEach(ret::set);
+
+		return ret;
+	}
+
+	/**
+	 * @param label  the label of the edge to the node, null for the root
+	 * @param leaves the candidate leaf states of the node
+	 * @return the states reached by the node
+	 */
+	private int[] reached(ITree<Object, KVLabel> document, INode<Object, KVLabel> node, String label, int[] leaves)
+	{
+		// The states reached by the children
+		var childStates = NO_STATES;
+		int nbChild     = 0;
+
+		for (var e : document.getChildren(node))
+		{
+			var childLabel = e.getLabel().asString();
+
+			if (!labels.contains(childLabel))
+				continue;
+
+			var child    = e.getChild();
+			var reached  = reached(document, child, childLabel, leaves(childLabel, child));
+			var newCount = nbChild + reached.length;
+
+			if (newCount > childStates.length)
+				childStates = Arrays.copyOf(childStates, Math.max(newCount, 2 * childStates.length));
+
+			System.arraycopy(reached, 0, childStates, nbChild, reached.length);
+			nbChild = newCount;
+		}
+		Arrays.sort(childStates, 0, nbChild);
+
+		// Count the distinct reached children of the candidate parents
+		var candidates   = NO_STATES;
+		int nbCandidates = 0;
+
+		for (int i = 0; i < nbChild; i++)
+		{
+			var c = childStates[i];
+
+			if (i > 0 && childStates[i - 1] == c)
+				continue;
+
+			for (var p : stateParents.get(c))
+			{
+				if (0 == counts[p]++)
+				{
+					if (nbCandidates == candidates.length)
+						candidates = Arrays.copyOf(candidates, Math.max(4, 2 * nbCandidates));
+
+					candidates[nbCandidates++] = p;
+				}
+			}
+		}
+		var ret   = new int[nbCandidates + leaves.length];
+		int nbRet = 0;
+
+		for (int i = 0; i < nbCandidates; i++)
+		{
+			var p = candidates[i];
+
+			if (counts[p] == stateChildren.get(p).length && Objects.equals(label, stateLabel.get(p)) && nodeMatches(p, node))
+				ret[nbRet++] = p;
+
+			counts[p] = 0;
+		}
+
+		for (var s : leaves)
+			if (nodeMatches(s, node))
+				ret[nbRet++] = s;
+
+		return Arrays.copyOf(ret, nbRet);
+	}
+
+	/**
+	 * The leaf states of a label whose value may be satisfied by a node.
+	 */
+	private int[] leaves(String label, INode<Object, KVLabel> node)
+	{
+		var leaves = labelLeaves.get(label);
+
+		if (null == leaves)
+			return NO_STATES;
+
+		var value = value(node.getValue());
+
+		if (null == value)
+			return leaves.others;
+
+		var byValue = leaves.byValue.getOrDefault(value, NO_STATES);
+
+		if (0 == byValue.length)
+			return leaves.others;
+		if (0 == leaves.others.length)
+			return byValue;
+
+		var ret = Arrays.copyOf(byValue, byValue.length + leaves.others.length);
+		System.arraycopy(leaves.others, 0, ret, byValue.length, leaves.others.length);
+		return ret;
+	}
+
+	private boolean nodeMatches(int state, INode<Object, KVLabel> node)
+	{
+		// The root of a reformulation is only constrained by its children
+		if (null == stateLabel.get(state))
+			return true;
+		if (checkTerminal && stateTerminal.get(state) && !node.isTerminal())
+			return false;
+
+		var qvalue = stateValue.get(state);
+
+		if (null == qvalue)
+			return true;
+
+		var dvalue = value(node.getValue());
+
+		if (qvalue instanceof MultiInterval)
+			return dvalue instanceof Double && contains((MultiInterval) qvalue, (Double) dvalue);
+
+		return qvalue.equals(dvalue);
+	}
+
+	private static boolean contains(MultiInterval interval, double value)
+	{
+		for (var i : interval.getIntervals())
+			if (i.getMin() <= value && value <= i.getMax())
+				return true;
+
+		return false;
+	}
+}
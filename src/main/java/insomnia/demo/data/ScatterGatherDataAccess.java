@@ -0,0 +1,269 @@
+package insomnia.demo.data;
+
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.function.BiFunction;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+import org.apache.commons.lang3.tuple.Triple;
+
+import insomnia.data.ITree;
+import insomnia.demo.Measures;
+import insomnia.demo.input.LogicalPartition;
+import insomnia.implem.kv.data.KVLabel;
+
+/**
+ * A data access over several shards holding the parts of a collection.
+ * The queries are sent to every shard in its own thread and the answers are merged; the measures of the shards are added with a 'shard.N.' prefix.
+ * The shards must use the same query translation: the records and native queries are interpreted by the first shard.
+ */
+public final class ScatterGatherDataAccess implements IDataAccess<Object, KVLabel>
+{
+	// Number of queries a shard can be behind the others
+	private static final int CAPACITY = 1024;
+
+	private List<IDataAccess<Object, KVLabel>> shards;
+
+	private List<Measures> shardsMeasures;
+
+	private Measures measures;
+
+	public ScatterGatherDataAccess(List<IDataAccess<Object, KVLabel>> shards, List<Measures> shardsMeasures, Measures measures)
+	{
+		if (shards.isEmpty())
+			throw new IllegalArgumentException("No shard");
+
+		this.shards         = shards;
+		this.shardsMeasures = shardsMeasures;
+		this.measures       = measures;
+	}
+
+	private IDataAccess<Object, KVLabel> first()
+	{
+		return shards.get(0);
+	}
+
+	private void mergeMeasures()
+	{
+		for (int i = 0, c = shardsMeasures.size(); i < c; i++)
+		{
+			var shardMeasures = shardsMeasures.get(i);
+			shardMeasures.setPrefix(String.format("shard.%d.", i + 1));
+			measures.putAll(shardMeasures);
+		}
+	}
+
+	private <T> Stream<Object> scatter(Stream<T> items, BiFunction<IDataAccess<Object, KVLabel>, Stream<T>, Stream<Object>> run)
+	{
+		return Pipelines.scatterGather(items, shards.size(), CAPACITY, "shards", (i, shardItems) -> run.apply(shards.get(i), shardItems), this::mergeMeasures);
+	}
+
+	// ==========================================================================
+
+	@Override
+	public void setQueryFilter(Predicate<ITree<Object, KVLabel>> filter)
+	{
+		shards.forEach(s -> s.setQueryFilter(filter));
+	}
+
+	/**
+	 * Each shard filters the queries on its own records: the answers are the same as with a global filter, not the number of executed queries.
+	 */
+	@Override
+	public void setEmptinessFilter(Boolean keepEmpty)
+	{
+		shards.forEach(s -> s.setEmptinessFilter(keepEmpty));
+	}
+
+	@Override
+	public void setLogicalPartition(LogicalPartition partition)
+	{
+		shards.forEach(s -> s.setLogicalPartition(partition));
+	}
+
+	@Override
+	public LogicalPartition getLogicalPartition()
+	{
+		return first().getLogicalPartition();
+	}
+
+	@Override
+	public void setProjection(Collection<String> fields)
+	{
+		shards.forEach(s -> s.setProjection(fields));
+	}
+
+	@Override
+	public String getCollectionName()
+	{
+		return first().getCollectionName();
+	}
+
+	@Override
+	public boolean getCheckTerminalLeaf()
+	{
+		return first().getCheckTerminalLeaf();
+	}
+
+	// ==========================================================================
+
+	@Override
+	public Stream<Object> all()
+	{
+		return shards.stream().flatMap(IDataAccess::all);
+	}
+
+	@Override
+	public Stream<ITree<Object, KVLabel>> allTrees()
+	{
+		return shards.stream().flatMap(IDataAccess::allTrees);
+	}
+
+	@Override
+	public boolean hasAnswer(ITree<Object, KVLabel> query)
+	{
+		return shards.stream().anyMatch(s -> s.hasAnswer(query));
+	}
+
+	/**
+	 * The queries empty on the first shard are checked one by one on the others.
+	 */
+	@Override
+	public Stream<Triple<ITree<Object, KVLabel>, Object, Boolean>> hasAnswers(Stream<ITree<Object, KVLabel>> queries)
+	{
+		var others = shards.subList(1, shards.size());
+
+		return first().hasAnswers(queries).map(t -> t.getRight() //
+			? t //
+			: Triple.of(t.getLeft(), t.getMiddle(), others.stream().anyMatch(s -> s.hasAnswer(t.getLeft()))));
+	}
+
+	@Override
+	public Stream<Object> explain(Stream<ITree<Object, KVLabel>> queries)
+	{
+		return scatter(queries, IDataAccess::explain);
+	}
+
+	@Override
+	public Stream<Object> execute(Stream<ITree<Object, KVLabel>> queries)
+	{
+		return scatter(queries, IDataAccess::execute);
+	}
+
+	@Override
+	public Stream<Object> executeNatives(Stream<Object> nativeQueries)
+	{
+		return scatter(nativeQueries, IDataAccess::executeNatives);
+	}
+
+	@Override
+	public Stream<Object> aggregate(Stream<ITree<Object, KVLabel>> queries)
+	{
+		return scatter(queries, IDataAccess::aggregate);
+	}
+
+	/**
+	 * The first shard translates and filters the queries, the others execute the native queries.
+	 */
+	@Override
+	public Stream<Triple<ITree<Object, KVLabel>, Object, Stream<Object>>> executeEach(Stream<ITree<Object, KVLabel>> queries)
+	{
+		var others = shards.subList(1, shards.size());
+
+		return first().executeEach(queries).map(t -> {
+			var answers = t.getRight();
+
+			for (var shard : others)
+				answers = Stream.concat(answers, shard.executeNatives(Stream.of(t.getMiddle())));
+
+			return Triple.of(t.getLeft(), t.getMiddle(), answers);
+		});
+	}
+
+	// ==========================================================================
+
+	@Override
+	public ITree<Object, KVLabel> nativeToTree(Object nativeRecord)
+	{
+		return first().nativeToTree(nativeRecord);
+	}
+
+	@Override
+	public Object treeToQNative(ITree<Object, KVLabel> query)
+	{
+		return first().treeToQNative(query);
+	}
+
+	@Override
+	public List<Set<String>> nativeQueryPaths(Object nativeQuery)
+	{
+		return first().nativeQueryPaths(nativeQuery);
+	}
+
+	@Override
+	public void createIndex(List<String> fields)
+	{
+		shards.forEach(s -> s.createIndex(fields));
+	}
+
+	@Override
+	public long getRecordId(Object record)
+	{
+		return first().getRecordId(record);
+	}
+
+	@Override
+	public explainStats explainStats(Object record)
+	{
+		return first().explainStats(record);
+	}
+
+	@Override
+	public aggregateStats aggregateStats(Object record)
+	{
+		return first().aggregateStats(record);
+	}
+
+	@Override
+	public long getNbDocuments()
+	{
+		return shards.stream().mapToLong(IDataAccess::getNbDocuments).sum();
+	}
+
+	/**
+	 * Every shard receives all the queries.
+	 */
+	@Override
+	public long getNbQueries()
+	{
+		return first().getNbQueries();
+	}
+
+	@Override
+	public long getNbBatches()
+	{
+		return first().getNbBatches();
+	}
+
+	@Override
+	public void encodeNativeQuery(Object query, PrintStream printer)
+	{
+		first().encodeNativeQuery(query, printer);
+	}
+
+	@Override
+	public Object decodeNativeQuery(String from)
+	{
+		return first().decodeNativeQuery(from);
+	}
+
+	@Override
+	public void writeInfos(PrintWriter printer)
+	{
+		shards.forEach(s -> s.writeInfos(printer));
+	}
+}
@@ -0,0 +1,130 @@
+package insomnia.demo.data;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
+
+import insomnia.data.INode;
+import insomnia.data.ITree;
+import insomnia.implem.kv.data.KVLabel;
+import insomnia.implem.kv.data.KVValues;
+
+/**
+ * Containment of tree-pattern queries.
+ * The answers of a query {@code specific} are included in the answers of {@code general} if there is a homomorphism from {@code general} to {@code specific}:
+ * the roots are mapped together, each child edge of {@code general} is mapped to a child edge of {@code specific} with the same label,
+ * and the value and terminal constraints of {@code general} are implied by the mapped nodes.
+ */
+public final class TreeContainment
+{
+	private TreeContainment()
+	{
+		throw new AssertionError();
+	}
+
+	// ==========================================================================
+
+	public static boolean isContained(ITree<Object, KVLabel> specific, ITree<Object, KVLabel> general)
+	{
+		return maps(general, general.getRoot(), specific, specific.getRoot());
+	}
+
+	private static boolean maps(ITree<Object, KVLabel> general, INode<Object, KVLabel> gnode, ITree<Object, KVLabel> specific, INode<Object, KVLabel> snode)
+	{
+		if (!valueImplies(snode.getValue(), gnode.getValue()))
+			return false;
+		if (gnode.isTerminal() && !snode.isTerminal())
+			return false;
+
+		var schilds = specific.getChildren(snode);
+
+		for (var gc : general.getChildren(gnode))
+		{
+			var     glabel = gc.getLabel().asString();
+			boolean found  = false;
+
+			for (var sc : schilds)
+			{
+				if (glabel.equals(sc.getLabel().asString()) && maps(general, gc.getChild(), specific, sc.getChild()))
+				{
+					found = true;
+					break;
+				}
+			}
+
+			if (!found)
+				return false;
+		}
+		return true;
+	}
+
+	private static boolean isAny(Object value)
+	{
+		return null == value || KVValues.interpretation().isAny(value);
+	}
+
+	private static boolean valueImplies(Object svalue, Object gvalue)
+	{
+		if (isAny(gvalue))
+			return true;
+		if (isAny(svalue))
+			return false;
+		if (svalue instanceof Number && gvalue instanceof Number)
+			return ((Number) svalue).doubleValue() == ((Number) gvalue).doubleValue();
+
+		return svalue.equals(gvalue);
+	}
+
+	private static Set<String> labels(ITree<Object, KVLabel> tree, INode<Object, KVLabel> node, Set<String> labels)
+	{
+		for (var c : tree.getChildren(node))
+		{
+			labels.add(c.getLabel().asString());
+			labels(tree, c.getChild(), labels);
+		}
+		return labels;
+	}
+
+	// ==========================================================================
+
+	/**
+	 * Remove the queries whose answers are included in the answers of another query of the list.
+	 * Among equivalent queries the first one is kept, so the union of the answers is unchanged.
+	 */
+	public static <T> List<T> pruneSubsumed(List<T> queries, Function<T, ITree<Object, KVLabel>> getTree)
+	{
+		var nb     = queries.size();
+		var trees  = new ArrayList<ITree<Object, KVLabel>>(nb);
+		var labels = new ArrayList<Set<String>>(nb);
+
+		for (var q : queries)
+		{
+			var tree = getTree.apply(q);
+			trees.add(tree);
+			labels.add(labels(tree, tree.getRoot(), new HashSet<>()));
+		}
+		var ret = new ArrayList<T>(nb);
+
+		for (int i = 0; i < nb; i++)
+		{
+			boolean subsumed = false;
+
+			for (int j = 0; j < nb && !subsumed; j++)
+			{
+				if (i == j || !labels.get(i).containsAll(labels.get(j)))
+					continue;
+				if (!isContained(trees.get(i), trees.get(j)))
+					continue;
+
+				// Keep the first of equivalent queries
+				subsumed = j < i || !isContained(trees.get(j), trees.get(i));
+			}
+
+			if (!subsumed)
+				ret.add(queries.get(i));
+		}
+		return ret;
+	}
+}
@@ -0,0 +1,115 @@
+package insomnia.demo.data;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import insomnia.data.INode;
+import insomnia.data.ITree;
+import insomnia.implem.kv.data.KVLabel;
+import insomnia.implem.kv.data.KVValues;
+
+/**
+ * Structural keys of trees: two (sub)trees have the same key iff they have the same labels, values, terminal flags and children order.
+ * Each element of a key is length-prefixed so that the encoding is not ambiguous.
+ */
+public final class TreeKeys
+{
+	private TreeKeys()
+	{
+		throw new AssertionError();
+	}
+
+	// ==========================================================================
+
+	/**
+	 * Compute the key of every subtree of the tree, in one bottom-up pass.
+	 */
+	public static Map<INode<Object, KVLabel>, String> ofSubtrees(ITree<Object, KVLabel> tree)
+	{
+		var ret = new IdentityHashMap<INode<Object, KVLabel>, String>();
+		ofSubtrees(tree, tree.getRoot(), ret);
+		return ret;
+	}
+
+	private static String ofSubtrees(ITree<Object, KVLabel> tree, INode<Object, KVLabel> node, Map<INode<Object, KVLabel>, String> keys)
+	{
+		var sb = new StringBuilder();
+		appendNode(sb, node);
+		sb.append('(');
+
+		for (var c : tree.getChildren(node))
+		{
+			appendString(sb, c.getLabel().asString());
+			sb.append(ofSubtrees(tree, c.getChild(), keys));
+		}
+		sb.append(')');
+
+		var ret = sb.toString();
+		keys.put(node, ret);
+		return ret;
+	}
+
+	// ==========================================================================
+
+	/**
+	 * Compute a key that does not depend on the order of the children: two trees equal up to siblings permutations have the same canonical key.
+	 */
+	public static String canonical(ITree<Object, KVLabel> tree)
+	{
+		return canonical(tree, tree.getRoot());
+	}
+
+	private static String canonical(ITree<Object, KVLabel> tree, INode<Object, KVLabel> node)
+	{
+		var childs = tree.getChildren(node);
+		var keys   = new ArrayList<String>(childs.size());
+
+		for (var c : childs)
+		{
+			var sb = new StringBuilder();
+			appendString(sb, c.getLabel().asString());
+			sb.append(canonical(tree, c.getChild()));
+			keys.add(sb.toString());
+		}
+		Collections.sort(keys);
+
+		var sb = new StringBuilder();
+		appendNode(sb, node);
+		sb.append('(');
+		keys.forEach(sb::append);
+		sb.append(')');
+		return sb.toString();
+	}
+
+	// ==========================================================================
+
+	private static void appendString(StringBuilder sb, String s)
+	{
+		sb.append(s.length()).append(':').append(s);
+	}
+
+	private static void appendNode(StringBuilder sb, INode<Object, KVLabel> node)
+	{
+		var value = node.getValue();
+
+		if (value == null || KVValues.interpretation().isAny(value))
+			;
+		else if (value instanceof String)
+		{
+			sb.append('s');
+			appendString(sb, (String) value);
+		}
+		else if (value instanceof Number)
+			sb.append('n').append(((Number) value).doubleValue()).append(';');
+		else
+		{
+			sb.append('o');
+			appendString(sb, value.toString());
+		}
+
+		if (node.isTerminal())
+			sb.append('!');
+	}
+}
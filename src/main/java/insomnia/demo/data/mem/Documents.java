@@ -0,0 +1,27 @@
+package insomnia.demo.data.mem;
+
+import java.io.PrintWriter;
+import java.util.stream.IntStream;
+
+import insomnia.data.ITree;
+import insomnia.implem.kv.data.KVLabel;
+
+/**
+ * Documents evaluating the queries locally; a document is designated by its index.
+ */
+interface Documents
+{
+	int getNbDocuments();
+
+	long getId(int doc);
+
+	/**
+	 * @param checkTerminal a terminal leaf of the query must be a terminal node of the document
+	 * @return the documents answering the query, in increasing order
+	 */
+	IntStream answers(ITree<Object, KVLabel> query, boolean checkTerminal);
+
+	ITree<Object, KVLabel> toTree(int doc);
+
+	void writeInfos(PrintWriter printer);
+}
@@ -0,0 +1,492 @@
+package insomnia.demo.data.mem;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+import insomnia.data.INode;
+import insomnia.data.ITree;
+import insomnia.implem.kv.data.KVLabel;
+import insomnia.lib.numeric.MultiInterval;
+
+/**
+ * An on-disk index from (label path, value) to the sorted list of the nodes having them, memory-mapped when opened.
+ * The nodes of all the documents are numbered in pre-order and the index keeps the parent of each node:
+ * a query is evaluated bottom-up by intersecting the nodes of a query node with the parents of the nodes of its children,
+ * so the children of a query node must be the children of a same document node, like with $elemMatch.
+ * <p>
+ * The file is a header followed by sections, each one mapped on its own and limited to 2 GiB:
+ * the ids and the roots of the documents, the parents of the nodes, then the sorted keys with their postings.
+ * A key is the path, a '\0' and the value: '*' for any value, '!' for a terminal node, 's' + a string, 'n' + a number as sortable hexadecimal or 'b' + a boolean.
+ */
+final class InvertedIndex implements Documents
+{
+	private static final int MAGIC = 0x48524958, VERSION = 1;
+
+	private static final int HEADER_SIZE = 7 * Integer.BYTES;
+
+	private static final String ANY = "*", TERMINAL = "!";
+
+	private int nbDocs, nbNodes, nbKeys, nbPostings;
+
+	private LongBuffer docIds;
+
+	private IntBuffer docRoots, parents, keyOffsets, postingStarts, postings;
+
+	private ByteBuffer keyBytes;
+
+	private InvertedIndex()
+	{
+	}
+
+	static Path file(Path dir, String db, String collection)
+	{
+		return dir.resolve(db).resolve(collection + ".idx");
+	}
+
+	static InvertedIndex open(Path file) throws IOException
+	{
+		var ret = new InvertedIndex();
+
+		// The mappings stay valid after the channel is closed
+		try (var channel = FileChannel.open(file))
+		{
+			var header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+
+			if (header.getInt() != MAGIC || header.getInt() != VERSION)
+				throw new IOException(String.format("%s is not an inverted index of version %d", file, VERSION));
+
+			ret.nbDocs     = header.getInt();
+			ret.nbNodes    = header.getInt();
+			ret.nbKeys     = header.getInt();
+			ret.nbPostings = header.getInt();
+			var nbKeyBytes = header.getInt();
+
+			long offset[] = { HEADER_SIZE };
+			ret.docIds        = map(channel, offset, (long) ret.nbDocs * Long.BYTES).asLongBuffer();
+			ret.docRoots      = map(channel, offset, (long) ret.nbDocs * Integer.BYTES).asIntBuffer();
+			ret.parents       = map(channel, offset, (long) ret.nbNodes * Integer.BYTES).asIntBuffer();
+			ret.keyOffsets    = map(channel, offset, (long) (ret.nbKeys + 1) * Integer.BYTES).asIntBuffer();
+			ret.postingStarts = map(channel, offset, (long) (ret.nbKeys + 1) * Integer.BYTES).asIntBuffer();
+			ret.postings      = map(channel, offset, (long) ret.nbPostings * Integer.BYTES).asIntBuffer();
+			ret.keyBytes      = map(channel, offset, nbKeyBytes);
+		}
+		return ret;
+	}
+
+	private static ByteBuffer map(FileChannel channel, long offset[], long size) throws IOException
+	{
+		var ret = channel.map(FileChannel.MapMode.READ_ONLY, offset[0], size);
+		offset[0] += size;
+		return ret;
+	}
+
+	// ==========================================================================
+
+	private static String key(String path, String value)
+	{
+		return path + '\0' + value;
+	}
+
+	private static String childPath(String path, KVLabel label)
+	{
+		var name = label.asString();
+		return path.isEmpty() ? name : path + "." + name;
+	}
+
+	/**
+	 * The hexadecimal of a double with the same order as the double.
+	 */
+	private static String numberKey(double value)
+	{
+		var bits = Double.doubleToLongBits(value);
+		bits ^= (bits >> 63) | Long.MIN_VALUE;
+		return String.format("n%016x", bits);
+	}
+
+	private static String valueKey(Object value)
+	{
+		if (value instanceof Number)
+			return numberKey(((Number) value).doubleValue());
+		if (value instanceof String)
+			return "s" + value;
+		if (value instanceof Boolean)
+			return "b" + value;
+
+		throw new IllegalArgumentException(String.format("Can't handle value '%s'", value));
+	}
+
+	// ==========================================================================
+
+	/**
+	 * Index the documents one by one, in memory, before writing the file.
+	 */
+	static final class Builder
+	{
+		// The size of a posting is at its index 0
+		private Map<String, int[]> postings = new HashMap<>();
+
+		private int docRoots[] = new int[64], parents[] = new int[1024];
+
+		private long docIds[] = new long[64];
+
+		private int nbDocs, nbNodes;
+
+		void add(long id, ITree<Object, KVLabel> doc)
+		{
+			if (nbDocs == docRoots.length)
+			{
+				docRoots = Arrays.copyOf(docRoots, nbDocs * 2);
+				docIds   = Arrays.copyOf(docIds, nbDocs * 2);
+			}
+			docRoots[nbDocs] = newNode(-1);
+			docIds[nbDocs]   = id;
+			nbDocs++;
+
+			var root = docRoots[nbDocs - 1];
+
+			for (var e : doc.getChildren(doc.getRoot()))
+				add(doc, e.getChild(), root, childPath("", e.getLabel()));
+		}
+
+		private void add(ITree<Object, KVLabel> doc, INode<Object, KVLabel> node, int parent, String path)
+		{
+			var id    = newNode(parent);
+			var value = node.getValue();
+
+			post(key(path, ANY), id);
+
+			if (null != value)
+				post(key(path, valueKey(value)), id);
+			if (node.isTerminal())
+				post(key(path, TERMINAL), id);
+
+			for (var e : doc.getChildren(node))
+				add(doc, e.getChild(), id, childPath(path, e.getLabel()));
+		}
+
+		private int newNode(int parent)
+		{
+			if (nbNodes == parents.length)
+				parents = Arrays.copyOf(parents, nbNodes * 2);
+
+			parents[nbNodes] = parent;
+			return nbNodes++;
+		}
+
+		private void post(String key, int node)
+		{
+			var posting = postings.computeIfAbsent(key, k -> new int[4]);
+			var size    = posting[0] + 1;
+
+			if (size == posting.length)
+				postings.put(key, posting = Arrays.copyOf(posting, size * 2));
+
+			posting[size] = node;
+			posting[0]    = size;
+		}
+
+		int getNbDocuments()
+		{
+			return nbDocs;
+		}
+
+		void write(Path file) throws IOException
+		{
+			var keys = new ArrayList<byte[]>(postings.size());
+
+			for (var k : postings.keySet())
+				keys.add(k.getBytes(StandardCharsets.UTF_8));
+
+			keys.sort(Arrays::compareUnsigned);
+
+			long nbPostings = postings.values().stream().mapToLong(p -> p[0]).sum();
+			long nbKeyBytes = keys.stream().mapToLong(k -> k.length).sum();
+
+			if (nbPostings > Integer.MAX_VALUE / Integer.BYTES || nbKeyBytes > Integer.MAX_VALUE)
+				throw new IllegalStateException("The index is too big for the mapped sections");
+
+			Files.createDirectories(file.toAbsolutePath().getParent());
+
+			try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file))))
+			{
+				for (var i : new int[] { MAGIC, VERSION, nbDocs, nbNodes, keys.size(), (int) nbPostings, (int) nbKeyBytes })
+					out.writeInt(i);
+
+				for (int i = 0; i < nbDocs; i++)
+					out.writeLong(docIds[i]);
+				for (int i = 0; i < nbDocs; i++)
+					out.writeInt(docRoots[i]);
+				for (int i = 0; i < nbNodes; i++)
+					out.writeInt(parents[i]);
+
+				int offset = 0;
+				out.writeInt(offset);
+				for (var k : keys)
+					out.writeInt(offset += k.length);
+
+				int start = 0;
+				out.writeInt(start);
+				for (var k : keys)
+					out.writeInt(start += postings.get(new String(k, StandardCharsets.UTF_8))[0]);
+
+				for (var k : keys)
+				{
+					var posting = postings.get(new String(k, StandardCharsets.UTF_8));
+
+					for (int i = 1; i <= posting[0]; i++)
+						out.writeInt(posting[i]);
+				}
+				for (var k : keys)
+					out.write(k);
+			}
+		}
+	}
+
+	// ==========================================================================
+
+	int getNbNodes()
+	{
+		return nbNodes;
+	}
+
+	int getNbKeys()
+	{
+		return nbKeys;
+	}
+
+	@Override
+	public int getNbDocuments()
+	{
+		return nbDocs;
+	}
+
+	@Override
+	public long getId(int doc)
+	{
+		return docIds.get(doc);
+	}
+
+	private byte[] getKey(int k)
+	{
+		var start = keyOffsets.get(k);
+		var ret   = new byte[keyOffsets.get(k + 1) - start];
+
+		for (int i = 0; i < ret.length; i++)
+			ret[i] = keyBytes.get(start + i);
+
+		return ret;
+	}
+
+	/**
+	 * @return the first key not lower than {@code key}
+	 */
+	private int lowerBound(byte[] key)
+	{
+		int lo = 0, hi = nbKeys;
+
+		while (lo < hi)
+		{
+			var mid = (lo + hi) >>> 1;
+
+			if (Arrays.compareUnsigned(getKey(mid), key) < 0)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return lo;
+	}
+
+	private int[] posting(int k)
+	{
+		var start = postingStarts.get(k);
+		var ret   = new int[postingStarts.get(k + 1) - start];
+
+		for (int i = 0; i < ret.length; i++)
+			ret[i] = postings.get(start + i);
+
+		return ret;
+	}
+
+	private int[] posting(String key)
+	{
+		var bytes = key.getBytes(StandardCharsets.UTF_8);
+		var k     = lowerBound(bytes);
+
+		if (k == nbKeys || !Arrays.equals(getKey(k), bytes))
+			return new int[0];
+
+		return posting(k);
+	}
+
+	/**
+	 * The union of the postings of the numbers in an interval, sorted and deduplicated once they are all collected.
+	 */
+	private int[] posting(String path, MultiInterval interval)
+	{
+		var ret = new int[16];
+		int n   = 0;
+
+		for (var i : interval.getIntervals())
+		{
+			var end = key(path, numberKey(i.getMax())).getBytes(StandardCharsets.UTF_8);
+
+			for (int k = lowerBound(key(path, numberKey(i.getMin())).getBytes(StandardCharsets.UTF_8)); k < nbKeys && Arrays.compareUnsigned(getKey(k), end) <= 0; k++)
+			{
+				var start = postingStarts.get(k);
+				var size  = postingStarts.get(k + 1) - start;
+
+				if (n + size > ret.length)
+					ret = Arrays.copyOf(ret, Math.max(n + size, ret.length * 2));
+
+				for (int p = 0; p < size; p++)
+					ret[n++] = postings.get(start + p);
+			}
+		}
+		Arrays.sort(ret, 0, n);
+
+		// Dedupe in place
+		int size = 0;
+
+		for (int i = 0; i < n; i++)
+			if (0 == size || ret[size - 1] != ret[i])
+				ret[size++] = ret[i];
+
+		return Arrays.copyOf(ret, size);
+	}
+
+	// ==========================================================================
+
+	private static int[] intersect(int a[], int b[])
+	{
+		var ret = new int[Math.min(a.length, b.length)];
+		int i   = 0, j = 0, n = 0;
+
+		while (i < a.length && j < b.length)
+		{
+			if (a[i] < b[j])
+				i++;
+			else if (a[i] > b[j])
+				j++;
+			else
+			{
+				ret[n++] = a[i];
+				i++;
+				j++;
+			}
+		}
+		return Arrays.copyOf(ret, n);
+	}
+
+	/**
+	 * The nodes of a path are at the same depth, so their parents are sorted like them.
+	 */
+	private int[] parents(int nodes[])
+	{
+		var ret = new int[nodes.length];
+		int n   = 0;
+
+		for (var node : nodes)
+		{
+			var parent = parents.get(node);
+
+			if (0 == n || ret[n - 1] != parent)
+				ret[n++] = parent;
+		}
+		return Arrays.copyOf(ret, n);
+	}
+
+	private int[] nodes(String path, INode<Object, KVLabel> node, boolean checkTerminal)
+	{
+		var value = TreePattern.value(node.getValue());
+		int ret[];
+
+		if (null == value)
+			ret = posting(key(path, ANY));
+		else if (value instanceof MultiInterval)
+			ret = posting(path, (MultiInterval) value);
+		else
+			ret = posting(key(path, valueKey(value)));
+
+		if (checkTerminal && node.isTerminal() && ret.length > 0)
+			ret = intersect(ret, posting(key(path, TERMINAL)));
+
+		return ret;
+	}
+
+	/**
+	 * @return the sorted nodes matching the subtree of a query node, null for the root without children
+	 */
+	private int[] eval(ITree<Object, KVLabel> query, INode<Object, KVLabel> node, String path, boolean checkTerminal)
+	{
+		var ret = path.isEmpty() ? null : nodes(path, node, checkTerminal);
+
+		for (var e : query.getChildren(node))
+		{
+			if (null != ret && 0 == ret.length)
+				break;
+
+			var childNodes = parents(eval(query, e.getChild(), childPath(path, e.getLabel()), checkTerminal));
+			ret = null == ret ? childNodes : intersect(ret, childNodes);
+		}
+		return ret;
+	}
+
+	@Override
+	public IntStream answers(ITree<Object, KVLabel> query, boolean checkTerminal)
+	{
+		var roots = eval(query, query.getRoot(), "", checkTerminal);
+
+		if (null == roots)
+			return IntStream.range(0, nbDocs);
+
+		return IntStream.of(roots).map(this::rootDocument);
+	}
+
+	private int rootDocument(int root)
+	{
+		int lo = 0, hi = nbDocs - 1;
+
+		while (lo < hi)
+		{
+			var mid = (lo + hi) >>> 1;
+
+			if (docRoots.get(mid) < root)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return lo;
+	}
+
+	/**
+	 * The index does not keep the labels of the nodes.
+	 */
+	@Override
+	public ITree<Object, KVLabel> toTree(int doc)
+	{
+		throw new UnsupportedOperationException("An inverted index can't rebuild its documents");
+	}
+
+	@Override
+	public void writeInfos(PrintWriter printer)
+	{
+		printer.printf("documents: %d\n", nbDocs);
+		printer.printf("nodes: %d\n", nbNodes);
+		printer.printf("keys: %d\n", nbKeys);
+		printer.printf("postings: %d\n", nbPostings);
+	}
+}
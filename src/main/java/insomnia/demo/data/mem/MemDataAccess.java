@@ -0,0 +1,525 @@
+package insomnia.demo.data.mem;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.OptionalLong;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.apache.commons.configuration2.Configuration;
+import org.apache.commons.lang3.tuple.Triple;
+
+import insomnia.data.ITree;
+import insomnia.demo.Measures;
+import insomnia.demo.TheConfiguration;
+import insomnia.demo.data.IDataAccess;
+import insomnia.demo.data.Pipelines;
+import insomnia.demo.input.LogicalPartition;
+import insomnia.implem.kv.KV;
+import insomnia.implem.kv.data.KVLabel;
+import insomnia.lib.cpu.CPUTimeBenchmark;
+import insomnia.lib.help.HelpStream;
+
+/**
+ * A data access evaluating the queries on documents loaded in memory, for measures without a database.
+ * The URI is mem:<dir>; the documents of a collection are in dir/db/collection.json (one JSON document by line) or dir/db/collection.bson (a BSON dump).
+ * The URI invindex:<dir> opens instead the inverted index dir/db/collection.idx built by the invindex command.
+ * The directory may be relative (mem:data) or absolute (mem:/data); mem://data is read as mem:data.
+ * A native query is the query itself and a record is the index of a document.
+ */
+public final class MemDataAccess implements IDataAccess<Object, KVLabel>
+{
+	private enum MyOptions
+	{
+		QUERY_BATCHSIZE(Option.builder().longOpt("query.batchSize").desc("(int) How many queries are evaluated at once").build()), //
+		BATCHES_NBTHREADS(Option.builder().longOpt("query.batches.nbThreads").desc("(int) Number of threads evaluating the batches").build()), //
+		LEAF_CHECKTERMINAL(Option.builder().longOpt("leaf.checkTerminal").desc("(bool) If true, a terminal node in the query must be a terminal node in the document").build()), //
+		;
+
+		Option opt;
+
+		private MyOptions(Option o)
+		{
+			opt = o;
+		}
+	}
+
+	public static Options getItsConfigProperties()
+	{
+		var ret = new Options();
+
+		for (var opt : List.of(MyOptions.values()))
+			ret.addOption(opt.opt);
+
+		return ret;
+	}
+
+	// ==========================================================================
+
+	// The loaded documents, by file and id field
+	private static Map<String, Documents> loaded = new HashMap<>();
+
+	private Documents documents;
+
+	private String collectionName;
+
+	private Measures measures;
+
+	private int queryBatchSize, nbThreads;
+
+	private boolean checkTerminal;
+
+	private LogicalPartition logicalPartition;
+
+	// The documents in the interval of the partition, null for all the documents
+	private BitSet partitionDocs;
+
+	// The documents having the prefix of a partition without interval, for all()
+	private BitSet prefixDocs;
+
+	private Predicate<ITree<Object, KVLabel>> queryFilter;
+
+	private Boolean emptinessFilter;
+
+	private long nbQueries[] = { 0, 0 };
+
+	private MemDataAccess(Documents documents, Configuration config, String collectionName, Measures measures)
+	{
+		this.documents      = documents;
+		this.collectionName = collectionName;
+		this.measures       = measures;
+		logicalPartition    = LogicalPartition.nullValue();
+		queryBatchSize      = config.getInt(MyOptions.QUERY_BATCHSIZE.opt.getLongOpt(), 100);
+		nbThreads           = config.getInt(MyOptions.BATCHES_NBTHREADS.opt.getLongOpt(), 1);
+		checkTerminal       = config.getBoolean(MyOptions.LEAF_CHECKTERMINAL.opt.getLongOpt(), true);
+	}
+
+	/**
+	 * @return the directory of an URI scheme:dir, scheme:/dir or scheme://dir
+	 */
+	private static Path directory(URI uri)
+	{
+		String dir;
+
+		if (uri.isOpaque())
+			dir = uri.getSchemeSpecificPart();
+		else
+			dir = Objects.toString(uri.getAuthority(), "") + Objects.toString(uri.getPath(), "");
+
+		if (dir.isEmpty())
+			throw new IllegalArgumentException(String.format("No directory in the URI %s", uri));
+
+		return Path.of(dir);
+	}
+
+	public static IDataAccess<Object, KVLabel> open(URI uri, Configuration config, String db, String collection, Measures measures)
+	{
+		var idField = config.getString(TheConfiguration.OneProperty.PartitionID.getPropertyName());
+		var dir     = directory(uri).resolve(db);
+		var bson    = dir.resolve(collection + ".bson");
+		var file    = Files.exists(bson) ? bson : dir.resolve(collection + ".json");
+
+		var store = load(file + "#" + idField, measures, () -> {
+			var ret = TreeStore.load(file, idField);
+			measures.set("mem", "nodes", ret.getNbNodes());
+			measures.set("mem", "labels", ret.getNbLabels());
+			return ret;
+		});
+		return new MemDataAccess(store, config, collection, measures);
+	}
+
+	public static IDataAccess<Object, KVLabel> openIndex(URI uri, Configuration config, String db, String collection, Measures measures)
+	{
+		var file = InvertedIndex.file(directory(uri), db, collection);
+
+		var index = load(file.toString(), measures, () -> {
+			var ret = InvertedIndex.open(file);
+			measures.set("mem", "nodes", ret.getNbNodes());
+			measures.set("mem", "keys", ret.getNbKeys());
+			return ret;
+		});
+		return new MemDataAccess(index, config, collection, measures);
+	}
+
+	/**
+	 * Build the inverted index of the documents of a data access, to be opened with {@link #openIndex(URI, Configuration, String, String, Measures)}.
+	 *
+	 * @return the number of indexed documents
+	 */
+	public static int buildIndex(IDataAccess<Object, KVLabel> dataAccess, Path dir, String db, String collection) throws IOException
+	{
+		var builder = new InvertedIndex.Builder();
+
+		try (var records = dataAccess.all())
+		{
+			records.forEach(r -> builder.add(dataAccess.getRecordId(r), dataAccess.nativeToTree(r)));
+		}
+		builder.write(InvertedIndex.file(dir, db, collection));
+		return builder.getNbDocuments();
+	}
+
+	private interface Loader
+	{
+		Documents load() throws IOException;
+	}
+
+	private static synchronized Documents load(String key, Measures measures, Loader loader)
+	{
+		return loaded.computeIfAbsent(key, k -> {
+			var time = measures.getTime("mem", "load");
+
+			try
+			{
+				time.startChrono();
+				var ret = loader.load();
+				time.stopChrono();
+
+				measures.set("mem", "documents", ret.getNbDocuments());
+				return ret;
+			}
+			catch (IOException e)
+			{
+				throw new UncheckedIOException(e);
+			}
+		});
+	}
+
+	// ==========================================================================
+
+	@Override
+	public void setQueryFilter(Predicate<ITree<Object, KVLabel>> filter)
+	{
+		queryFilter = filter;
+	}
+
+	@Override
+	public void setEmptinessFilter(Boolean keepEmpty)
+	{
+		emptinessFilter = keepEmpty;
+	}
+
+	@Override
+	public void setLogicalPartition(LogicalPartition partition)
+	{
+		logicalPartition = partition;
+		partitionDocs    = null;
+		prefixDocs       = null;
+
+		if (partition.isNull())
+			return;
+
+		var interval = partition.getInterval();
+
+		if (interval.isNull())
+		{
+			prefixDocs = new BitSet();
+			documents.answers(partition.getPrefix(), false).forEach(prefixDocs::set);
+		}
+		else
+		{
+			partitionDocs = new BitSet();
+
+			for (int i = 0, c = documents.getNbDocuments(); i < c; i++)
+				if (TreePattern.contains(interval, documents.getId(i)))
+					partitionDocs.set(i);
+		}
+	}
+
+	@Override
+	public LogicalPartition getLogicalPartition()
+	{
+		return logicalPartition;
+	}
+
+	/**
+	 * A record is always the index of a document.
+	 */
+	@Override
+	public void setProjection(Collection<String> fields)
+	{
+	}
+
+	@Override
+	public String getCollectionName()
+	{
+		return collectionName;
+	}
+
+	@Override
+	public boolean getCheckTerminalLeaf()
+	{
+		return checkTerminal;
+	}
+
+	// ==========================================================================
+
+	private IntStream answers(ITree<Object, KVLabel> query)
+	{
+		var ret = documents.answers(query, checkTerminal);
+
+		if (null == partitionDocs)
+			return ret;
+
+		return ret.filter(partitionDocs::get);
+	}
+
+	/**
+	 * @return the documents answering at least one query of the batch
+	 */
+	private BitSet evalBatch(List<ITree<Object, KVLabel>> batch)
+	{
+		var ret = new BitSet();
+
+		for (var q : batch)
+			answers(q).forEach(ret::set);
+
+		return ret;
+	}
+
+	private Stream<ITree<Object, KVLabel>> wrapQueries(Stream<ITree<Object, KVLabel>> queries)
+	{
+		if (null != queryFilter)
+			queries = queries.filter(queryFilter);
+
+		if (null != emptinessFilter)
+		{
+			boolean keepEmpty = emptinessFilter;
+			queries = queries.filter(q -> hasAnswer(q) != keepEmpty);
+		}
+		return queries;
+	}
+
+	private <R> Stream<R> evalBatches(Stream<ITree<Object, KVLabel>> queries, Function<List<ITree<Object, KVLabel>>, R> eval)
+	{
+		nbQueries = new long[] { 0, 0 };
+
+		var batches = HelpStream.batch(wrapQueries(queries), queryBatchSize, nbQueries);
+
+		if (nbThreads > 1)
+			return Pipelines.<List<ITree<Object, KVLabel>>, R>parallel(batches, nbThreads, 2 * nbThreads, false, "mem-" + collectionName, i -> eval::apply, () -> {
+			});
+
+		return batches.map(eval);
+	}
+
+	private static Stream<Object> records(BitSet docs)
+	{
+		return docs.stream().mapToObj(Integer::valueOf);
+	}
+
+	// ==========================================================================
+
+	@Override
+	public Stream<Object> all()
+	{
+		return allDocs().mapToObj(Integer::valueOf);
+	}
+
+	@Override
+	public Stream<ITree<Object, KVLabel>> allTrees()
+	{
+		return allDocs().mapToObj(documents::toTree);
+	}
+
+	private IntStream allDocs()
+	{
+		if (null != prefixDocs)
+			return prefixDocs.stream();
+		if (null != partitionDocs)
+			return partitionDocs.stream();
+
+		return IntStream.range(0, documents.getNbDocuments());
+	}
+
+	@Override
+	public boolean hasAnswer(ITree<Object, KVLabel> query)
+	{
+		return answers(query).findAny().isPresent();
+	}
+
+	@Override
+	public Stream<Triple<ITree<Object, KVLabel>, Object, Boolean>> hasAnswers(Stream<ITree<Object, KVLabel>> queries)
+	{
+		return queries.map(q -> Triple.of(q, q, hasAnswer(q)));
+	}
+
+	@Override
+	public Stream<Object> explain(Stream<ITree<Object, KVLabel>> queries)
+	{
+		return evalBatches(queries, batch -> {
+			var time = new CPUTimeBenchmark();
+			time.startChrono();
+			var docs = evalBatch(batch);
+			time.stopChrono();
+			return explainStats(docs.cardinality(), time);
+		});
+	}
+
+	@Override
+	public Stream<Object> execute(Stream<ITree<Object, KVLabel>> queries)
+	{
+		return evalBatches(queries, this::evalBatch).flatMap(MemDataAccess::records);
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public Stream<Object> executeNatives(Stream<Object> nativeQueries)
+	{
+		return execute(nativeQueries.map(q -> (ITree<Object, KVLabel>) q));
+	}
+
+	@Override
+	public Stream<Object> aggregate(Stream<ITree<Object, KVLabel>> queries)
+	{
+		return evalBatches(queries, this::evalBatch).map(docs -> {
+			long nb = docs.cardinality();
+
+			return new aggregateStats()
+			{
+				@Override
+				public long getNbAnswers()
+				{
+					return nb;
+				}
+
+				@Override
+				public OptionalLong getRecordId()
+				{
+					return OptionalLong.empty();
+				}
+			};
+		});
+	}
+
+	@Override
+	public aggregateStats aggregateStats(Object record)
+	{
+		return (aggregateStats) record;
+	}
+
+	@Override
+	public Stream<Triple<ITree<Object, KVLabel>, Object, Stream<Object>>> executeEach(Stream<ITree<Object, KVLabel>> queries)
+	{
+		return wrapQueries(queries).map(q -> Triple.of(q, q, answers(q).mapToObj(Integer::valueOf)));
+	}
+
+	// ==========================================================================
+
+	@Override
+	public ITree<Object, KVLabel> nativeToTree(Object nativeRecord)
+	{
+		return documents.toTree((Integer) nativeRecord);
+	}
+
+	@Override
+	public Object treeToQNative(ITree<Object, KVLabel> query)
+	{
+		return query;
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public List<Set<String>> nativeQueryPaths(Object nativeQuery)
+	{
+		return List.of(TreePattern.paths((ITree<Object, KVLabel>) nativeQuery));
+	}
+
+	/**
+	 * The documents are always indexed.
+	 */
+	@Override
+	public void createIndex(List<String> fields)
+	{
+	}
+
+	@Override
+	public long getRecordId(Object record)
+	{
+		return documents.getId((Integer) record);
+	}
+
+	private static explainStats explainStats(long nbAnswers, CPUTimeBenchmark time)
+	{
+		return new explainStats()
+		{
+			@Override
+			public CPUTimeBenchmark getTime()
+			{
+				return time;
+			}
+
+			@Override
+			public long getNbAnswers()
+			{
+				return nbAnswers;
+			}
+		};
+	}
+
+	@Override
+	public explainStats explainStats(Object record)
+	{
+		return (explainStats) record;
+	}
+
+	@Override
+	public long getNbDocuments()
+	{
+		return documents.getNbDocuments();
+	}
+
+	@Override
+	public long getNbQueries()
+	{
+		return nbQueries[0];
+	}
+
+	@Override
+	public long getNbBatches()
+	{
+		return nbQueries[1];
+	}
+
+	@Override
+	public void encodeNativeQuery(Object query, PrintStream printer)
+	{
+		printer.println(query);
+	}
+
+	@Override
+	public Object decodeNativeQuery(String from)
+	{
+		try
+		{
+			return KV.treeFromString(from);
+		}
+		catch (ParseException e)
+		{
+			throw new IllegalArgumentException(e);
+		}
+	}
+
+	@Override
+	public void writeInfos(PrintWriter printer)
+	{
+		printer.printf("collection: %s\n", collectionName);
+		documents.writeInfos(printer);
+	}
+}
@@ -0,0 +1,197 @@
+package insomnia.demo.data.mem;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import insomnia.data.INode;
+import insomnia.data.ITree;
+import insomnia.implem.kv.data.KVLabel;
+import insomnia.implem.kv.data.KVValues;
+import insomnia.lib.numeric.MultiInterval;
+
+/**
+ * A query compiled for a {@link TreeStore}.
+ * A document is an answer if there is a homomorphism from the query to the document: the root is mapped to the root,
+ * each child to a child with the same label, the values must be equal and a terminal node of the query may have to be mapped to a terminal node.
+ */
+final class TreePattern
+{
+	private TreeStore store;
+
+	private boolean checkTerminal;
+
+	// Node 0 is the root
+	private int label[];
+
+	private Object value[];
+
+	private boolean terminal[];
+
+	private int children[][];
+
+	// A label of the query is not in the store
+	private boolean impossible;
+
+	TreePattern(ITree<Object, KVLabel> query, TreeStore store, boolean checkTerminal)
+	{
+		this.store         = store;
+		this.checkTerminal = checkTerminal;
+
+		var nodes  = new ArrayList<INode<Object, KVLabel>>();
+		var labels = new ArrayList<Integer>();
+		var childs = new ArrayList<List<Integer>>();
+		compile(query, query.getRoot(), -1, nodes, labels, childs);
+
+		var nb = nodes.size();
+		label    = new int[nb];
+		value    = new Object[nb];
+		terminal = new boolean[nb];
+		children = new int[nb][];
+
+		for (int i = 0; i < nb; i++)
+		{
+			var node = nodes.get(i);
+			label[i]    = labels.get(i);
+			value[i]    = value(node.getValue());
+			terminal[i] = node.isTerminal();
+			children[i] = childs.get(i).stream().mapToInt(Integer::intValue).toArray();
+		}
+	}
+
+	private int compile(ITree<Object, KVLabel> query, INode<Object, KVLabel> node, int label, List<INode<Object, KVLabel>> nodes, List<Integer> labels, List<List<Integer>> childs)
+	{
+		var ret = nodes.size();
+		var cs  = new ArrayList<Integer>();
+		nodes.add(node);
+		labels.add(label);
+		childs.add(cs);
+
+		for (var e : query.getChildren(node))
+		{
+			var labelId = store.getLabelId(e.getLabel().asString());
+
+			if (labelId.isEmpty())
+				impossible = true;
+
+			cs.add(compile(query, e.getChild(), labelId.orElse(-1), nodes, labels, childs));
+		}
+		return ret;
+	}
+
+	static Object value(Object value)
+	{
+		if (null == value || KVValues.interpretation().isAny(value))
+			return null;
+		if (value instanceof Number)
+			return Double.valueOf(((Number) value).doubleValue());
+		if (value instanceof String || value instanceof MultiInterval)
+			return value;
+
+		throw new IllegalArgumentException(String.format("Can't handle value '%s'", value));
+	}
+
+	/**
+	 * @return the dotted label paths from the root to the leaves of a query
+	 */
+	static Set<String> paths(ITree<Object, KVLabel> query)
+	{
+		var ret = new HashSet<String>();
+		paths(query, query.getRoot(), "", ret);
+		return ret;
+	}
+
+	private static void paths(ITree<Object, KVLabel> query, INode<Object, KVLabel> node, String path, Set<String> paths)
+	{
+		var edges = query.getChildren(node);
+
+		if (edges.isEmpty() && !path.isEmpty())
+			paths.add(path);
+
+		for (var e : edges)
+		{
+			var name = e.getLabel().asString();
+			paths(query, e.getChild(), path.isEmpty() ? name : path + "." + name, paths);
+		}
+	}
+
+	// ==========================================================================
+
+	/**
+	 * The documents that may be answers: the ones of the rarest label of the query.
+	 *
+	 * @return null if all the documents may be answers
+	 */
+	BitSet candidates()
+	{
+		if (impossible)
+			return new BitSet();
+
+		BitSet ret = null;
+
+		for (int i = 1; i < label.length; i++)
+		{
+			var docs = store.getLabelDocuments(label[i]);
+
+			if (null == ret || docs.cardinality() < ret.cardinality())
+				ret = docs;
+		}
+		return ret;
+	}
+
+	boolean matches(int doc)
+	{
+		if (impossible)
+			return false;
+
+		return matches(0, store.getRoot(doc));
+	}
+
+	private boolean matches(int qnode, int dnode)
+	{
+		for (var qc : children[qnode])
+		{
+			var found = false;
+
+			for (int dc = dnode + 1, end = store.getEnd(dnode); dc < end; dc = store.getEnd(dc))
+			{
+				if (store.getLabel(dc) == label[qc] && matchesNode(qc, dc) && matches(qc, dc))
+				{
+					found = true;
+					break;
+				}
+			}
+			if (!found)
+				return false;
+		}
+		return true;
+	}
+
+	private boolean matchesNode(int qnode, int dnode)
+	{
+		var qvalue = value[qnode];
+
+		if (terminal[qnode] && checkTerminal && !store.isTerminal(dnode))
+			return false;
+		if (null == qvalue)
+			return true;
+
+		var dvalue = store.getValue(dnode);
+
+		if (qvalue instanceof MultiInterval)
+			return dvalue instanceof Double && contains((MultiInterval) qvalue, (Double) dvalue);
+
+		return qvalue.equals(dvalue);
+	}
+
+	static boolean contains(MultiInterval interval, double value)
+	{
+		for (var i : interval.getIntervals())
+			if (i.getMin() <= value && value <= i.getMax())
+				return true;
+
+		return false;
+	}
+}
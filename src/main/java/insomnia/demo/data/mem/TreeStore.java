@@ -0,0 +1,386 @@
+package insomnia.demo.data.mem;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalInt;
+import java.util.stream.IntStream;
+
+import org.bson.BsonBinaryReader;
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.json.JsonReader;
+
+import insomnia.data.ITree;
+import insomnia.implem.data.Trees;
+import insomnia.implem.data.creational.TreeBuilder;
+import insomnia.implem.kv.data.KVLabel;
+import insomnia.implem.kv.data.KVLabels;
+
+/**
+ * The documents of a collection stored as arrays of nodes.
+ * The nodes of a document are in pre-order after its root, and each node knows the end of its subtree, so no object is allocated by node.
+ * The labels are interned as ints and equal values are shared; the arrays of a document are flattened like in the trees of the MongoDB records.
+ */
+final class TreeStore implements Documents
+{
+	private static final int NO_LABEL = -1;
+
+	private Map<String, Integer> labelIds = new HashMap<>();
+
+	private List<KVLabel> labels = new ArrayList<>();
+
+	// The documents having a node with a label
+	private List<BitSet> labelDocs = new ArrayList<>();
+
+	private Map<Object, Object> values = new HashMap<>();
+
+	private int nodeLabel[] = new int[1024], nodeEnd[] = new int[1024];
+
+	private Object nodeValue[] = new Object[1024];
+
+	private BitSet terminal = new BitSet();
+
+	private int nbNodes;
+
+	private int docRoot[] = new int[64];
+
+	private long docId[] = new long[64];
+
+	private int nbDocs;
+
+	private String idField;
+
+	// The id of the document being read
+	private long currentId;
+
+	TreeStore(String idField)
+	{
+		this.idField = idField;
+	}
+
+	// ==========================================================================
+
+	/**
+	 * Load a file of JSON documents, one by line, or a BSON dump (.bson).
+	 */
+	static TreeStore load(Path file, String idField) throws IOException
+	{
+		var ret = new TreeStore(idField);
+
+		if (file.toString().endsWith(".bson"))
+		{
+			try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file))))
+			{
+				ret.loadBson(in);
+			}
+		}
+		else
+		{
+			try (var in = Files.newBufferedReader(file))
+			{
+				ret.loadJson(in);
+			}
+		}
+		ret.trim();
+		return ret;
+	}
+
+	private void loadJson(BufferedReader in) throws IOException
+	{
+		String line;
+
+		while (null != (line = in.readLine()))
+		{
+			if (line.isBlank())
+				continue;
+
+			try (var reader = new JsonReader(line))
+			{
+				add(reader);
+			}
+		}
+	}
+
+	private void loadBson(DataInputStream in) throws IOException
+	{
+		var sizeBytes = new byte[4];
+
+		while (true)
+		{
+			try
+			{
+				in.readFully(sizeBytes);
+			}
+			catch (EOFException e)
+			{
+				return;
+			}
+			var size = ByteBuffer.wrap(sizeBytes).order(ByteOrder.LITTLE_ENDIAN).getInt();
+			var doc  = Arrays.copyOf(sizeBytes, size);
+			in.readFully(doc, 4, size - 4);
+
+			try (var reader = new BsonBinaryReader(ByteBuffer.wrap(doc)))
+			{
+				add(reader);
+			}
+		}
+	}
+
+	private void trim()
+	{
+		nodeLabel = Arrays.copyOf(nodeLabel, nbNodes);
+		nodeEnd   = Arrays.copyOf(nodeEnd, nbNodes);
+		nodeValue = Arrays.copyOf(nodeValue, nbNodes);
+		docRoot   = Arrays.copyOf(docRoot, nbDocs);
+		docId     = Arrays.copyOf(docId, nbDocs);
+		values    = null;
+	}
+
+	// ==========================================================================
+
+	private int labelId(String label)
+	{
+		var ret = labelIds.get(label);
+
+		if (null != ret)
+			return ret;
+
+		ret = labels.size();
+		labelIds.put(label, ret);
+		labels.add(KVLabels.create(label));
+		labelDocs.add(new BitSet());
+		return ret;
+	}
+
+	private int newNode(int label)
+	{
+		if (nbNodes == nodeLabel.length)
+		{
+			var size = nbNodes * 2;
+			nodeLabel = Arrays.copyOf(nodeLabel, size);
+			nodeEnd   = Arrays.copyOf(nodeEnd, size);
+			nodeValue = Arrays.copyOf(nodeValue, size);
+		}
+		if (label != NO_LABEL)
+			labelDocs.get(label).set(nbDocs);
+
+		nodeLabel[nbNodes] = label;
+		return nbNodes++;
+	}
+
+	private void add(BsonReader reader)
+	{
+		if (nbDocs == docRoot.length)
+		{
+			docRoot = Arrays.copyOf(docRoot, nbDocs * 2);
+			docId   = Arrays.copyOf(docId, nbDocs * 2);
+		}
+		currentId = nbDocs;
+
+		var root = newNode(NO_LABEL);
+		readDocument(reader, true);
+		nodeEnd[root] = nbNodes;
+
+		docRoot[nbDocs] = root;
+		docId[nbDocs]   = currentId;
+		nbDocs++;
+	}
+
+	private void readDocument(BsonReader reader, boolean top)
+	{
+		reader.readStartDocument();
+
+		while (reader.readBsonType() != BsonType.END_OF_DOCUMENT)
+		{
+			var name = reader.readName();
+			readValue(reader, labelId(name), top && name.equals(idField));
+		}
+		reader.readEndDocument();
+	}
+
+	private void readValue(BsonReader reader, int label, boolean isId)
+	{
+		var type = reader.getCurrentBsonType();
+
+		if (type == BsonType.ARRAY)
+		{
+			reader.readStartArray();
+
+			while (reader.readBsonType() != BsonType.END_OF_DOCUMENT)
+				readValue(reader, label, false);
+
+			reader.readEndArray();
+			return;
+		}
+		var node = newNode(label);
+
+		switch (type)
+		{
+		case DOCUMENT:
+			readDocument(reader, false);
+			break;
+		case STRING:
+			setValue(node, reader.readString());
+			break;
+		case INT32:
+			setValue(node, Double.valueOf(reader.readInt32()));
+			break;
+		case INT64:
+			setValue(node, Double.valueOf(reader.readInt64()));
+			break;
+		case DOUBLE:
+			setValue(node, Double.valueOf(reader.readDouble()));
+			break;
+		case DECIMAL128:
+			setValue(node, Double.valueOf(reader.readDecimal128().bigDecimalValue().doubleValue()));
+			break;
+		case BOOLEAN:
+			setValue(node, Boolean.valueOf(reader.readBoolean()));
+			break;
+		case NULL:
+			reader.readNull();
+			terminal.set(node);
+			break;
+		case OBJECT_ID:
+			setValue(node, reader.readObjectId().toString());
+			break;
+		default:
+			throw new IllegalArgumentException(String.format("Cannot handle %s value", type));
+		}
+		nodeEnd[node] = nbNodes;
+
+		if (isId && nodeValue[node] instanceof Double)
+			currentId = ((Double) nodeValue[node]).longValue();
+	}
+
+	private void setValue(int node, Object value)
+	{
+		nodeValue[node] = values.computeIfAbsent(value, v -> v);
+		terminal.set(node);
+	}
+
+	// ==========================================================================
+
+	@Override
+	public int getNbDocuments()
+	{
+		return nbDocs;
+	}
+
+	int getNbNodes()
+	{
+		return nbNodes;
+	}
+
+	int getNbLabels()
+	{
+		return labels.size();
+	}
+
+	OptionalInt getLabelId(String label)
+	{
+		var ret = labelIds.get(label);
+		return null == ret ? OptionalInt.empty() : OptionalInt.of(ret);
+	}
+
+	BitSet getLabelDocuments(int label)
+	{
+		return labelDocs.get(label);
+	}
+
+	int getRoot(int doc)
+	{
+		return docRoot[doc];
+	}
+
+	@Override
+	public long getId(int doc)
+	{
+		return docId[doc];
+	}
+
+	int getLabel(int node)
+	{
+		return nodeLabel[node];
+	}
+
+	Object getValue(int node)
+	{
+		return nodeValue[node];
+	}
+
+	boolean isTerminal(int node)
+	{
+		return terminal.get(node);
+	}
+
+	/**
+	 * The first child of a node is the next node and the next sibling of a child is the end of its subtree.
+	 */
+	int getEnd(int node)
+	{
+		return nodeEnd[node];
+	}
+
+	// ==========================================================================
+
+	@Override
+	public IntStream answers(ITree<Object, KVLabel> query, boolean checkTerminal)
+	{
+		var pattern    = new TreePattern(query, this, checkTerminal);
+		var candidates = pattern.candidates();
+
+		return (null == candidates ? IntStream.range(0, nbDocs) : candidates.stream()).filter(pattern::matches);
+	}
+
+	@Override
+	public void writeInfos(PrintWriter printer)
+	{
+		printer.printf("documents: %d\n", nbDocs);
+		printer.printf("nodes: %d\n", nbNodes);
+		printer.printf("labels: %d\n", labels.size());
+	}
+
+	@Override
+	public ITree<Object, KVLabel> toTree(int doc)
+	{
+		var tb = new TreeBuilder<Object, KVLabel>();
+		tb.setRooted();
+
+		var root = docRoot[doc];
+
+		for (int c = root + 1, end = nodeEnd[root]; c < end; c = nodeEnd[c])
+			toTree(tb, c);
+
+		return Trees.create(tb);
+	}
+
+	private void toTree(TreeBuilder<Object, KVLabel> tb, int node)
+	{
+		tb.addChildDown(labels.get(nodeLabel[node]));
+
+		if (null != nodeValue[node])
+			tb.setValue(nodeValue[node]);
+		if (terminal.get(node))
+			tb.setTerminal();
+
+		for (int c = node + 1, end = nodeEnd[node]; c < end; c = nodeEnd[c])
+			toTree(tb, c);
+
+		tb.goUp();
+	}
+}
@@ -0,0 +1,310 @@
+package insomnia.demo.data.mongodb;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.function.BiConsumer;
+
+import org.apache.commons.lang3.tuple.Pair;
+import org.bson.BsonArray;
+import org.bson.BsonDocument;
+import org.bson.BsonString;
+import org.bson.BsonValue;
+
+/**
+ * Rewritings of a batch of filters into one filter equivalent to their disjunction.
+ */
+final class BatchCompilers
+{
+	private BatchCompilers()
+	{
+		throw new AssertionError();
+	}
+
+	enum Mode
+	{
+		OR, FACTOR;
+
+		static Mode fromString(String mode)
+		{
+			return Mode.valueOf(mode.toUpperCase());
+		}
+	}
+
+	// ==========================================================================
+
+	static BsonDocument or(List<BsonDocument> branches)
+	{
+		if (branches.size() == 1)
+			return branches.get(0);
+
+		var array = new BsonArray();
+
+		for (var b : branches)
+		{
+			// Flatten the nested disjunctions
+			if (b.size() == 1 && b.containsKey("$or"))
+				array.addAll(b.getArray("$or"));
+			else
+				array.add(b);
+		}
+		return new BsonDocument("$or", array);
+	}
+
+	private static BsonDocument and(BsonDocument a, BsonDocument b)
+	{
+		for (var k : b.keySet())
+			if (a.containsKey(k))
+				return new BsonDocument("$and", new BsonArray(List.of(a, b)));
+
+		var ret = a.clone();
+		ret.putAll(b);
+		return ret;
+	}
+
+	private static boolean isFieldDocument(BsonDocument doc)
+	{
+		for (var k : doc.keySet())
+			if (k.charAt(0) == '$' && !k.equals("$and") && !k.equals("$or"))
+				return false;
+
+		return true;
+	}
+
+	// ==========================================================================
+
+	/**
+	 * Factor the conditions shared by several branches: (A and B) or (A and C) becomes A and (B or C).
+	 * Branches made of a single {@code $elemMatch} on the same key are merged: {@code $elemMatch} distributes over the disjunction.
+	 */
+	static BsonDocument factor(List<BsonDocument> branches)
+	{
+		if (branches.size() <= 1)
+			return or(branches);
+
+		// An empty filter matches everything
+		for (var b : branches)
+			if (b.isEmpty())
+				return b;
+
+		var conjuncts = new LinkedHashMap<Pair<String, BsonValue>, Integer>();
+
+		for (var b : branches)
+			for (var e : b.entrySet())
+				conjuncts.merge(Pair.of(e.getKey(), e.getValue()), 1, Integer::sum);
+
+		Pair<String, BsonValue> best      = null;
+		int                     bestCount = 1;
+
+		for (var e : conjuncts.entrySet())
+		{
+			if (e.getValue() > bestCount)
+			{
+				best      = e.getKey();
+				bestCount = e.getValue();
+			}
+		}
+
+		if (null != best)
+		{
+			var key      = best.getKey();
+			var value    = best.getValue();
+			var residues = new ArrayList<BsonDocument>();
+			var rest     = new ArrayList<BsonDocument>();
+			var absorbed = false;
+
+			for (var b : branches)
+			{
+				if (value.equals(b.get(key)))
+				{
+					var residue = b.clone();
+					residue.remove(key);
+					residues.add(residue);
+					absorbed |= residue.isEmpty();
+				}
+				else
+					rest.add(b);
+			}
+			var conjunct = new BsonDocument(key, value);
+
+			// A or (A and B) is A
+			var group = absorbed ? conjunct : and(conjunct, factor(residues));
+
+			if (rest.isEmpty())
+				return group;
+
+			return or(List.of(group, factor(rest)));
+		}
+		return factorElemMatch(branches);
+	}
+
+	private static BsonDocument factorElemMatch(List<BsonDocument> branches)
+	{
+		var elemMatchs = new LinkedHashMap<String, List<BsonDocument>>();
+		var parts      = new ArrayList<BsonDocument>();
+
+		for (var b : branches)
+		{
+			if (b.size() == 1)
+			{
+				var key   = b.getFirstKey();
+				var value = b.get(key);
+
+				if (value.isDocument() && value.asDocument().size() == 1)
+				{
+					var elemMatch = value.asDocument().get("$elemMatch");
+
+					if (null != elemMatch && elemMatch.isDocument() && isFieldDocument(elemMatch.asDocument()))
+					{
+						elemMatchs.computeIfAbsent(key, k -> new ArrayList<>()).add(elemMatch.asDocument());
+						continue;
+					}
+				}
+			}
+			parts.add(b);
+		}
+
+		for (var e : elemMatchs.entrySet())
+		{
+			var inners = e.getValue();
+
+			if (inners.size() == 1)
+				parts.add(new BsonDocument(e.getKey(), new BsonDocument("$elemMatch", inners.get(0))));
+			else
+				parts.add(new BsonDocument(e.getKey(), new BsonDocument("$elemMatch", factor(inners))));
+		}
+		return or(parts);
+	}
+
+	// ==========================================================================
+
+	private static final BsonDocument hole = new BsonDocument("$in", new BsonString("#hole"));
+
+	/**
+	 * Merge the branches that are equal except for one {@code $eq} value: (x = a) or (x = b) becomes x in [a, b].
+	 * The {@code $eq} operands are only under conjunctions, disjunctions and {@code $elemMatch}, which all distribute over the disjunction.
+	 */
+	static List<BsonDocument> mergeIn(List<BsonDocument> branches)
+	{
+		var templates = new LinkedHashMap<BsonValue, List<Pair<Integer, BsonValue>>>();
+
+		for (int i = 0, c = branches.size(); i < c; i++)
+		{
+			var index = i;
+			holes(branches.get(i), (template, value) -> templates.computeIfAbsent(template, k -> new ArrayList<>()).add(Pair.of(index, value)));
+		}
+		var groups = new ArrayList<>(templates.entrySet());
+		groups.sort(Comparator.comparing(e -> -e.getValue().size()));
+
+		var merged = new BsonDocument[branches.size()];
+		var used   = new boolean[branches.size()];
+
+		for (var group : groups)
+		{
+			var values = new LinkedHashSet<BsonValue>();
+			int first  = -1;
+
+			for (var p : group.getValue())
+			{
+				if (used[p.getKey()])
+					continue;
+				if (first == -1)
+					first = p.getKey();
+
+				values.add(p.getValue());
+			}
+
+			if (values.size() < 2)
+				continue;
+
+			for (var p : group.getValue())
+				used[p.getKey()] = true;
+
+			merged[first] = fillHole(group.getKey(), new BsonDocument("$in", new BsonArray(new ArrayList<>(values)))).asDocument();
+		}
+		var ret = new ArrayList<BsonDocument>();
+
+		for (int i = 0, c = branches.size(); i < c; i++)
+		{
+			if (null != merged[i])
+				ret.add(merged[i]);
+			else if (!used[i])
+				ret.add(branches.get(i));
+		}
+		return ret;
+	}
+
+	private static void holes(BsonValue value, BiConsumer<BsonValue, BsonValue> action)
+	{
+		if (value.isDocument())
+		{
+			var doc = value.asDocument();
+
+			if (doc.size() == 1 && doc.containsKey("$eq"))
+			{
+				action.accept(hole, doc.get("$eq"));
+				return;
+			}
+
+			for (var k : doc.keySet())
+			{
+				holes(doc.get(k), (template, v) -> {
+					var copy = doc.clone();
+					copy.put(k, template);
+					action.accept(copy, v);
+				});
+			}
+		}
+		else if (value.isArray())
+		{
+			var array = value.asArray();
+
+			for (int i = 0, c = array.size(); i < c; i++)
+			{
+				var index = i;
+				holes(array.get(i), (template, v) -> {
+					var copy = array.clone();
+					copy.set(index, template);
+					action.accept(copy, v);
+				});
+			}
+		}
+	}
+
+	private static BsonValue fillHole(BsonValue template, BsonDocument in)
+	{
+		if (template == hole)
+			return in;
+		if (template.isDocument())
+		{
+			var ret = new BsonDocument();
+
+			for (var e : template.asDocument().entrySet())
+				ret.append(e.getKey(), fillHole(e.getValue(), in));
+
+			return ret;
+		}
+		if (template.isArray())
+		{
+			var ret = new BsonArray();
+
+			for (var v : template.asArray())
+				ret.add(fillHole(v, in));
+
+			return ret;
+		}
+		return template;
+	}
+
+	// ==========================================================================
+
+	static int nbBranches(BsonDocument filter)
+	{
+		if (filter.size() == 1 && filter.containsKey("$or"))
+			return filter.getArray("$or").size();
+
+		return 1;
+	}
+}
@@ -0,0 +1,263 @@
+package insomnia.demo.data.mongodb;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import insomnia.demo.Measures;
+
+/**
+ * Adaptive control of the size of the batches and of the number of active workers.
+ * The throughput (queries by second of wall-clock time) is measured on epochs of some completed batches,
+ * and a hill climbing moves each parameter in the direction that improved the last epoch.
+ * When the throughput decreases the direction is reversed and the step is reduced.
+ */
+final class BatchTuner
+{
+	private static final double MIN_FACTOR = 1.1;
+
+	private static final List<String> historyNames = List.of("batchSize", "nbWorkers", "queries", "answers", "latency");
+
+	private static final class Climber
+	{
+		private int value, min, max;
+
+		private boolean multiplicative;
+
+		private int direction = 1;
+
+		private double factor = 2;
+
+		private double lastThroughput = -1;
+
+		private Climber(int value, int min, int max, boolean multiplicative)
+		{
+			this.value          = Math.max(min, Math.min(max, value));
+			this.min            = min;
+			this.max            = max;
+			this.multiplicative = multiplicative;
+		}
+
+		private void step(double throughput)
+		{
+			if (throughput < lastThroughput)
+			{
+				direction = -direction;
+				factor    = Math.max(MIN_FACTOR, Math.sqrt(factor));
+			}
+			lastThroughput = throughput;
+
+			int next;
+
+			if (!multiplicative)
+				next = value + direction;
+			else if (direction > 0)
+				next = (int) Math.ceil(value * factor);
+			else
+				next = (int) Math.floor(value / factor);
+
+			// Bounce on the limits
+			if (next < min || next > max)
+			{
+				direction = -direction;
+				next      = Math.max(min, Math.min(max, next));
+			}
+			value = next;
+		}
+	}
+
+	/**
+	 * A semaphore whose number of permits can be reduced.
+	 */
+	private static final class ResizableSemaphore extends Semaphore
+	{
+		private static final long serialVersionUID = 1L;
+
+		private ResizableSemaphore(int permits)
+		{
+			super(permits);
+		}
+
+		private void resize(int from, int to)
+		{
+			if (to > from)
+				release(to - from);
+			else
+				reducePermits(from - to);
+		}
+	}
+
+	// ==========================================================================
+
+	private Climber batchSize, nbWorkers;
+
+	private ResizableSemaphore activeWorkers;
+
+	private int epochBatches;
+
+	private boolean tuneWorkers;
+
+	// Which climber moves at the end of the epoch
+	private boolean workersEpoch;
+
+	private long epochStart;
+
+	private int epochNb, epochQueries, epochAnswers;
+
+	private long epochLatency;
+
+	private Measures measures;
+
+	private int currentBatchSize[], currentNbWorkers[];
+
+	private List<int[]> history = new ArrayList<>();
+
+	/**
+	 * @param nbWorkers the number of workers, or 0 if the number of active workers must not be tuned
+	 */
+	BatchTuner(int batchSize, int minBatchSize, int maxBatchSize, int nbWorkers, int epochBatches, Measures measures)
+	{
+		this.batchSize    = new Climber(batchSize, minBatchSize, maxBatchSize, true);
+		this.epochBatches = epochBatches;
+		this.measures     = measures;
+		tuneWorkers       = nbWorkers > 1;
+		currentBatchSize  = measures.getIntTab("batch.tuner", "batchSize");
+
+		currentBatchSize[0] = this.batchSize.value;
+
+		if (tuneWorkers)
+		{
+			this.nbWorkers   = new Climber(nbWorkers, 1, nbWorkers, false);
+			activeWorkers    = new ResizableSemaphore(nbWorkers);
+			currentNbWorkers = measures.getIntTab("batch.tuner", "nbWorkers");
+
+			currentNbWorkers[0] = nbWorkers;
+		}
+		// The history measures are replaced at each epoch
+		for (var name : historyNames)
+			measures.set("batch.tuner", "history." + name, new int[0]);
+	}
+
+	synchronized int getBatchSize()
+	{
+		return batchSize.value;
+	}
+
+	// ==========================================================================
+
+	void acquireWorker() throws InterruptedException
+	{
+		if (tuneWorkers)
+			activeWorkers.acquire();
+	}
+
+	void releaseWorker()
+	{
+		if (tuneWorkers)
+			activeWorkers.release();
+	}
+
+	// ==========================================================================
+
+	/**
+	 * Record the completion of a batch.
+	 *
+	 * @param latency nanoseconds from the send of the batch to the consumption of its last answer
+	 */
+	synchronized void record(int nbQueries, int nbAnswers, long latency)
+	{
+		var now = System.nanoTime();
+
+		if (epochNb == 0 && epochStart == 0)
+			epochStart = now - latency;
+
+		epochNb++;
+		epochQueries += nbQueries;
+		epochAnswers += nbAnswers;
+		epochLatency += latency;
+
+		if (epochNb < epochBatches)
+			return;
+
+		var seconds = Math.max(now - epochStart, 1) / 1e9;
+		var qps     = epochQueries / seconds;
+
+		history.add(new int[] { //
+			batchSize.value, //
+			tuneWorkers ? nbWorkers.value : 0, //
+			(int) qps, //
+			(int) (epochAnswers / seconds), //
+			(int) (epochLatency / epochNb / 1_000_000) //
+		});
+
+		if (workersEpoch)
+		{
+			var from = nbWorkers.value;
+			nbWorkers.step(qps);
+			activeWorkers.resize(from, nbWorkers.value);
+			currentNbWorkers[0] = nbWorkers.value;
+		}
+		else
+		{
+			batchSize.step(qps);
+			currentBatchSize[0] = batchSize.value;
+		}
+		workersEpoch = tuneWorkers && !workersEpoch;
+		writeHistory();
+
+		epochStart   = now;
+		epochNb      = 0;
+		epochQueries = 0;
+		epochAnswers = 0;
+		epochLatency = 0;
+	}
+
+	private void writeHistory()
+	{
+		for (int i = 0, c = historyNames.size(); i < c; i++)
+		{
+			var index = i;
+			measures.set("batch.tuner", "history." + historyNames.get(i), history.stream().mapToInt(h -> h[index]).toArray());
+		}
+	}
+
+	// ==========================================================================
+
+	/**
+	 * Batch a stream, the size of each batch being the current tuned size.
+	 *
+	 * @param nbItems counts the number of items and the number of batches
+	 */
+	<T> Stream<List<T>> batch(Stream<T> stream, long[] nbItems)
+	{
+		Iterator<T> it = stream.iterator();
+
+		var batches = new Spliterators.AbstractSpliterator<List<T>>(Long.MAX_VALUE, Spliterator.ORDERED)
+		{
+			@Override
+			public boolean tryAdvance(Consumer<? super List<T>> action)
+			{
+				if (!it.hasNext())
+					return false;
+
+				var size  = getBatchSize();
+				var batch = new ArrayList<T>(size);
+
+				while (batch.size() < size && it.hasNext())
+					batch.add(it.next());
+
+				nbItems[0] += batch.size();
+				nbItems[1]++;
+				action.accept(batch);
+				return true;
+			}
+		};
+		return StreamSupport.stream(batches, false).onClose(stream::close);
+	}
+}
@@ -0,0 +1,78 @@
+package insomnia.demo.data.mongodb;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.bson.BsonArray;
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+
+import insomnia.demo.data.Fingerprint;
+
+/**
+ * Canonical forms of native filters: keys of a document are sorted (they are conjunctions) as well as the operands of the set-like operators.
+ */
+final class BsonCanonicals
+{
+	private BsonCanonicals()
+	{
+		throw new AssertionError();
+	}
+
+	private static final Set<String> unorderedOperators = Set.of("$and", "$or", "$nor", "$all", "$in");
+
+	// ==========================================================================
+
+	static BsonValue canonical(BsonValue value)
+	{
+		return canonical(value, false);
+	}
+
+	private static BsonValue canonical(BsonValue value, boolean unordered)
+	{
+		if (value.isDocument())
+		{
+			var sorted = new TreeMap<String, BsonValue>();
+
+			for (var e : value.asDocument().entrySet())
+				sorted.put(e.getKey(), canonical(e.getValue(), unorderedOperators.contains(e.getKey())));
+
+			var ret = new BsonDocument();
+			sorted.forEach(ret::append);
+			return ret;
+		}
+		else if (value.isArray())
+		{
+			var values = new ArrayList<BsonValue>();
+
+			for (var v : value.asArray())
+				values.add(canonical(v, false));
+
+			if (unordered)
+				values.sort(Comparator.comparing(BsonCanonicals::toJson));
+
+			return new BsonArray(values);
+		}
+		return value;
+	}
+
+	private static String toJson(BsonValue value)
+	{
+		if (value.isDocument())
+			return value.asDocument().toJson();
+
+		return new BsonDocument("v", value).toJson();
+	}
+
+	static String canonicalJson(BsonDocument filter)
+	{
+		return canonical(filter).asDocument().toJson();
+	}
+
+	static Fingerprint fingerprint(BsonDocument filter)
+	{
+		return Fingerprint.of(canonicalJson(filter));
+	}
+}
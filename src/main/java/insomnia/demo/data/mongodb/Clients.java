@@ -0,0 +1,46 @@
+package insomnia.demo.data.mongodb;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.mongodb.ConnectionString;
+import com.mongodb.MongoClientSettings;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+
+/**
+ * The mongo clients of the process, one by connection string.
+ * The size of a client pool is fixed by the first access to the server, unless the connection string sets it.
+ */
+final class Clients
+{
+	private Clients()
+	{
+		throw new AssertionError();
+	}
+
+	private static Map<String, MongoClient> clients = new HashMap<>();
+
+	// ==========================================================================
+
+	static synchronized MongoClient get(ConnectionString connection, int poolSize)
+	{
+		return clients.computeIfAbsent(connection.getConnectionString(), k -> create(connection, poolSize));
+	}
+
+	private static MongoClient create(ConnectionString connection, int poolSize)
+	{
+		var settings = MongoClientSettings.builder() //
+			.applyConnectionString(connection) //
+			.applyToConnectionPoolSettings(pool -> {
+
+				if (null == connection.getMaxConnectionPoolSize())
+					pool.maxSize(poolSize);
+				if (null == connection.getMaxConnecting())
+					pool.maxConnecting(poolSize);
+			}) //
+			.build();
+
+		return MongoClients.create(settings);
+	}
+}
@@ -4,22 +4,29 @@ import java.io.IOException;
 import java.io.PrintStream;
 import java.io.PrintWriter;
 import java.net.URI;
+import java.nio.file.Path;
 import java.text.ParseException;
 import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
-import java.util.concurrent.TimeUnit;
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
+import java.util.stream.LongStream;
 import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import org.apache.commons.cli.Option;
 import org.apache.commons.cli.Options;
@@ -28,27 +35,40 @@ import org.apache.commons.collections4.ListUtils;
 import org.apache.commons.collections4.MultiValuedMap;
 import org.apache.commons.collections4.bag.HashBag;
 import org.apache.commons.collections4.multimap.HashSetValuedHashMap;
+import org.apache.commons.configuration2.CompositeConfiguration;
 import org.apache.commons.configuration2.Configuration;
+import org.apache.commons.configuration2.MapConfiguration;
 import org.apache.commons.lang3.tuple.Pair;
 import org.apache.commons.lang3.tuple.Triple;
 import org.bson.BsonArray;
+import org.bson.BsonBinaryReader;
 import org.bson.BsonBoolean;
 import org.bson.BsonDocument;
 import org.bson.BsonDouble;
 import org.bson.BsonInt32;
+import org.bson.BsonInt64;
+import org.bson.BsonReader;
 import org.bson.BsonString;
 import org.bson.BsonType;
 import org.bson.BsonValue;
 import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.BsonDocumentCodec;
+import org.bson.codecs.Codec;
 import org.bson.conversions.Bson;
 
 import com.mongodb.ConnectionString;
 import com.mongodb.ExplainVerbosity;
 import com.mongodb.client.FindIterable;
 import com.mongodb.client.MongoClient;
-import com.mongodb.client.MongoClients;
 import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.model.Accumulators;
+import com.mongodb.client.model.Aggregates;
 import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.Sorts;
 
 import insomnia.data.INode;
 import insomnia.data.ITree;
@@ -57,7 +77,13 @@ import insomnia.demo.Measures;
 import insomnia.demo.TheConfiguration;
 import insomnia.demo.TheDemo;
 import insomnia.demo.TheDemo.TheMeasures;
+import insomnia.demo.data.Fingerprint;
+import insomnia.demo.data.FingerprintSet;
 import insomnia.demo.data.IDataAccess;
+import insomnia.demo.data.Pipelines;
+import insomnia.demo.data.ScatterGatherDataAccess;
+import insomnia.demo.data.TreeContainment;
+import insomnia.demo.data.TreeKeys;
 import insomnia.demo.input.LogicalPartition;
 import insomnia.demo.input.Summary;
 import insomnia.implem.data.TreeFilters;
@@ -81,13 +107,33 @@ public final class DataAccess implements IDataAccess<Object, KVLabel>
 	private enum MyOptions
 	{
 		QUERY_BATCHSIZE(Option.builder().longOpt("query.batchSize").desc("(int) How many queries to send at once to MongoDB").build()), //
-		BATCHES_NBTHREADS(Option.builder().longOpt("query.batches.nbThreads").desc("(int) Number of thread used to process batches").build()), //
+		BATCHES_NBTHREADS(Option.builder().longOpt("query.batches.nbThreads").desc("(int) Number of thread used to process batches; with more than one thread, query.batches.inFlight bounds the number of batches in process (default 2 by thread)").build()), //
+		BATCHES_ORDERED(Option.builder().longOpt("query.batches.ordered").desc("(bool) If true, the parallel execution returns the answers in the order of the batches").build()), //
+		BATCHES_INFLIGHT(Option.builder().longOpt("query.batches.inFlight").desc("(int) Number of batches translated and sent ahead of the consumption of the current batch answers; 0 to consume each batch before sending the next one").build()), //
+		QUERY_BATCH_TUNE(Option.builder().longOpt("query.batch.tune").desc("(none|size|all) Adapt query.batchSize, and with 'all' the number of active threads, to the measured throughput of the batches").build()), //
+		QUERY_BATCH_TUNE_MIN(Option.builder().longOpt("query.batch.tune.min").desc("(int) Minimal size of an adapted batch").build()), //
+		QUERY_BATCH_TUNE_MAX(Option.builder().longOpt("query.batch.tune.max").desc("(int) Maximal size of an adapted batch").build()), //
+		QUERY_BATCH_TUNE_EPOCH(Option.builder().longOpt("query.batch.tune.epoch").desc("(int) Number of batches measured before each adaptation").build()), //
+		QUERY_EMPTINESS_BATCHSIZE(Option.builder().longOpt("query.emptiness.batchSize").desc("(int) How many queries are checked for emptiness in one round trip").build()), //
+		QUERY_EMPTINESS_NBTHREADS(Option.builder().longOpt("query.emptiness.nbThreads").desc("(int) Number of emptiness checks in process at the same time").build()), //
+		QUERY_CACHE_DIR(Option.builder().longOpt("query.cache.dir").desc("(str) Directory of the result cache of the native queries; no cache if not set").build()), //
+		QUERY_CACHE_SIZE(Option.builder().longOpt("query.cache.size").desc("(int) Maximum size of the result cache in MiB").build()), //
+		QUERY_CACHE_MARKER(Option.builder().longOpt("query.cache.marker").desc("(none|maxId|str) What identifies the state of the collection with its number of documents: nothing more, the maximal record id, or a version string").build()), //
+		QUERY_AGGREGATE_IDS(Option.builder().longOpt("query.aggregate.ids").desc("(bool) If true, the aggregation of the answers of a batch returns the count for each distinct record id instead of the count of the batch").build()), //
+		DATA_SHARDS(Option.builder().longOpt("data.shards").desc("(list) URIs of several servers holding parts of the collection: the queries are sent to all of them and their answers merged; a ',' inside an URI must be escaped").build()), //
 		DATA_BATCHSIZE(Option.builder().longOpt("data.batchSize").desc("(int) How many records MongoDB must batch").build()), //
 		LEAF_CHECKTERMINAL(Option.builder().longOpt("leaf.checkTerminal").desc("(bool) If true, the native MongoDB query will have constraints to check if a terminal node in the query is a terminal node in the result").build()), //
 		INHIBIT_BATCH_STREAM_TIME(Option.builder().longOpt("inhibitBatchStreamTime").desc("(bool) If true, does it best to not count the time passed in the result stream to construct batches of reformulations").build()), //
 		Q2NATIVE_DOTS(Option.builder().longOpt("toNative.dots").desc("(bool) If true, simplify simple paths using the dot notation").build()), //
 		Q2NATIVE_SUMMARY(Option.builder().longOpt("toNative.summary").desc("(str) Path to the summary to use for the query2native traduction").build()), //
 		Q2NATIVE_SUMMARY_TYPE(Option.builder().longOpt("toNative.summary.type").desc("(str) key-type|path").build()), //
+		Q2NATIVE_CACHE_SIZE(Option.builder().longOpt("toNative.cache.size").desc("(int) Maximum number of translated subtrees to keep in memory; 0 to disable the cache").build()), //
+		QUERY_BATCH_COMPILE(Option.builder().longOpt("query.batch.compile").desc("(or|factor) How a batch is compiled to one filter: a flat $or, or a $or where the shared conditions and $elemMatch are factorized").build()), //
+		QUERY_BATCH_MERGEIN(Option.builder().longOpt("query.batch.mergeIn").desc("(bool) If true, the reformulations of a batch that differ only by one $eq value are merged into one $in filter").build()), //
+		QUERY_PRUNE_SUBSUMED(Option.builder().longOpt("query.prune.subsumed").desc("(bool) If true, remove from a batch the reformulations whose answers are included in the answers of another reformulation of the batch").build()), //
+		QUERY_DEDUP(Option.builder().longOpt("query.dedup").desc("(none|trees|natives|all) Skip the reformulations whose canonical tree and/or canonical native query was already sent").build()), //
+		QUERY_DEDUP_MEMORY(Option.builder().longOpt("query.dedup.memory").desc("(int) Maximum number of fingerprints to keep in memory before spilling to disk; 0 for no limit").build()), //
+		QUERY_DEDUP_SPILLDIR(Option.builder().longOpt("query.dedup.spillDir").desc("(str) Directory of the dedup spill files").build()), //
 		;
 
 		Option opt;
@@ -110,13 +156,30 @@ public final class DataAccess implements IDataAccess<Object, KVLabel>
 
 	// ==========================================================================
 
-	// For now this can only handle one mongo client
-	private static MongoClient client;
+	private MongoClient client;
 
-	private ConnectionString connection;
+	private int emptinessBatchSize, emptinessNbThreads;
+
+	private static final Codec<BsonDocument> idCodec = new BsonDocumentCodec();
+
+	private ResultCache cache;
+
+	// The projection is only the record id
+	private boolean projectIds;
+
+	// null if no filter, else true to keep the empty queries
+	private Boolean emptinessFilter;
+
+	// The translations made by the emptiness filter, used once by tree2Query
+	private Map<ITree<Object, KVLabel>, Bson> checkedNatives = Collections.synchronizedMap(new IdentityHashMap<>());
 
 	private MongoCollection<Document> collection;
 
+	// The records are not decoded: only the accessed fields are read
+	private MongoCollection<RawBsonDocument> records;
+
+	private Bson projection;
+
 	private LogicalPartition logicalPartition;
 
 	private String partitionID;
@@ -125,6 +188,8 @@ public final class DataAccess implements IDataAccess<Object, KVLabel>
 
 	private int nbThreads;
 
+	private int batchesInFlight;
+
 	private boolean checkTerminalLeaf;
 
 	private boolean inhibitBatchStreamTime;
@@ -139,33 +204,41 @@ public final class DataAccess implements IDataAccess<Object, KVLabel>
 
 	private String collectionName;
 
-	private ITreeNavigator<NodeInfos<Object>, KVLabel> summaryNavigator;
+	private TranslationCache translationCache;
+
+	private boolean dedupTrees, dedupNatives;
+
+	private int dedupMemory;
+
+	private Path dedupSpillDir;
+
+	private LongAdder treeDuplicates;
+
+	private boolean pruneSubsumed;
+
+	private BatchCompilers.Mode batchCompile;
+
+	private boolean batchMergeIn;
 
-	private CPUTimeBenchmark q2native;
+	private boolean batchesOrdered;
 
-	private static Collection<CPUTimeBenchmark> streamMeasures;
+	private boolean aggregateIds;
+
+	private BatchTuner tuner;
+
+	private ThreadContext mainContext;
+
+	private ThreadLocal<ThreadContext> workerContext = new ThreadLocal<>();
+
+	private Collection<CPUTimeBenchmark> streamMeasures;
 
 	private Measures measures;
 
 	private DataAccess(URI uri, Configuration config, String db, String collectionName, Measures measures)
 	{
-		if (null == client)
-		{
-			var nbcolls = config.getList("db.collection").size();
-			var uri_s   = uri.toString();
-
-			if (!uri_s.contains("/?"))
-				uri_s = uri_s + "/?";
-
-			uri_s      += "&maxConnecting=" + nbcolls;
-			connection  = new ConnectionString(uri_s);
-			client      = MongoClients.create(connection);
-		}
 		this.measures       = measures;
 		logicalPartition    = LogicalPartition.nullValue();
-		collection          = client.getDatabase(db).getCollection(collectionName);
 		this.collectionName = collectionName;
-		this.q2native       = measures.getTime(TheDemo.TheMeasures.QUERY_TO_NATIVE.measureName());
 		streamMeasures      = List.of( //
 			measures.getTime(TheMeasures.QEVAL_STREAM_NEXT.measureName()), //
 			measures.getTime(TheMeasures.QEVAL_STREAM_TOTAL.measureName()) //
@@ -175,6 +248,12 @@ public final class DataAccess implements IDataAccess<Object, KVLabel>
 		queryBatchSize         = config.getInt(MyOptions.QUERY_BATCHSIZE.opt.getLongOpt(), 100);
 		dataBatchSize          = config.getInt(MyOptions.DATA_BATCHSIZE.opt.getLongOpt(), 100);
 		nbThreads              = config.getInt(MyOptions.BATCHES_NBTHREADS.opt.getLongOpt(), 1);
+		batchesInFlight        = config.getInt(MyOptions.BATCHES_INFLIGHT.opt.getLongOpt(), 0);
+		emptinessBatchSize     = config.getInt(MyOptions.QUERY_EMPTINESS_BATCHSIZE.opt.getLongOpt(), 100);
+		emptinessNbThreads     = config.getInt(MyOptions.QUERY_EMPTINESS_NBTHREADS.opt.getLongOpt(), 2);
+		client                 = Clients.get(new ConnectionString(uri.toString()), poolSize(config));
+		collection             = client.getDatabase(db).getCollection(collectionName);
+		records                = collection.withDocumentClass(RawBsonDocument.class);
 		checkTerminalLeaf      = config.getBoolean(MyOptions.LEAF_CHECKTERMINAL.opt.getLongOpt(), true);
 		inhibitBatchStreamTime = config.getBoolean(MyOptions.INHIBIT_BATCH_STREAM_TIME.opt.getLongOpt(), true);
 		q2NativeDots           = config.getBoolean(MyOptions.Q2NATIVE_DOTS.opt.getLongOpt(), false);
@@ -185,9 +264,178 @@ public final class DataAccess implements IDataAccess<Object, KVLabel>
 		if (inhibitBatchStreamTime)
 			inhibitTime = measures.getTime(TheMeasures.QEVAL_STREAM_INHIB.measureName());
 
-		summaryUrl       = config.getString(MyOptions.Q2NATIVE_SUMMARY.opt.getLongOpt(), "");
-		summaryType      = config.getString(MyOptions.Q2NATIVE_SUMMARY_TYPE.opt.getLongOpt());
-		summaryNavigator = null;
+		summaryUrl  = config.getString(MyOptions.Q2NATIVE_SUMMARY.opt.getLongOpt(), "");
+		summaryType = config.getString(MyOptions.Q2NATIVE_SUMMARY_TYPE.opt.getLongOpt());
+
+		var cacheSize = config.getInt(MyOptions.Q2NATIVE_CACHE_SIZE.opt.getLongOpt(), 0);
+
+		if (cacheSize > 0)
+			translationCache = new TranslationCache(cacheSize, measures);
+
+		var dedup = config.getString(MyOptions.QUERY_DEDUP.opt.getLongOpt(), "none");
+
+		switch (dedup)
+		{
+		case "none":
+			break;
+		case "trees":
+			dedupTrees = true;
+			break;
+		case "natives":
+			dedupNatives = true;
+			break;
+		case "all":
+			dedupTrees = dedupNatives = true;
+			break;
+		default:
+			throw new IllegalArgumentException(String.format("Invalid %s: %s", MyOptions.QUERY_DEDUP.opt.getLongOpt(), dedup));
+		}
+		dedupMemory    = config.getInt(MyOptions.QUERY_DEDUP_MEMORY.opt.getLongOpt(), 0);
+		dedupSpillDir  = Path.of(config.getString(MyOptions.QUERY_DEDUP_SPILLDIR.opt.getLongOpt(), System.getProperty("java.io.tmpdir")));
+		treeDuplicates = measures.getCounter("dedup", "trees.duplicates");
+
+		pruneSubsumed  = config.getBoolean(MyOptions.QUERY_PRUNE_SUBSUMED.opt.getLongOpt(), false);
+		batchCompile   = BatchCompilers.Mode.fromString(config.getString(MyOptions.QUERY_BATCH_COMPILE.opt.getLongOpt(), "or"));
+		batchMergeIn   = config.getBoolean(MyOptions.QUERY_BATCH_MERGEIN.opt.getLongOpt(), false);
+		batchesOrdered = config.getBoolean(MyOptions.BATCHES_ORDERED.opt.getLongOpt(), false);
+		aggregateIds   = config.getBoolean(MyOptions.QUERY_AGGREGATE_IDS.opt.getLongOpt(), false);
+
+		var cacheDir = config.getString(MyOptions.QUERY_CACHE_DIR.opt.getLongOpt(), "");
+
+		if (!cacheDir.isEmpty())
+			cache = new ResultCache(Path.of(cacheDir), //
+				(long) config.getInt(MyOptions.QUERY_CACHE_SIZE.opt.getLongOpt(), 1024) << 20, //
+				collectionKey(uri, db, config.getString(MyOptions.QUERY_CACHE_MARKER.opt.getLongOpt(), "none")), //
+				measures);
+
+		mainContext    = new ThreadContext(measures);
+
+		var tune = config.getString(MyOptions.QUERY_BATCH_TUNE.opt.getLongOpt(), "none");
+
+		switch (tune)
+		{
+		case "none":
+			break;
+		case "size":
+		case "all":
+			tuner = new BatchTuner(queryBatchSize, //
+				config.getInt(MyOptions.QUERY_BATCH_TUNE_MIN.opt.getLongOpt(), 1), //
+				config.getInt(MyOptions.QUERY_BATCH_TUNE_MAX.opt.getLongOpt(), 10_000), //
+				tune.equals("all") ? nbThreads : 0, //
+				config.getInt(MyOptions.QUERY_BATCH_TUNE_EPOCH.opt.getLongOpt(), 4), //
+				measures);
+			break;
+		default:
+			throw new IllegalArgumentException(String.format("Invalid %s: %s", MyOptions.QUERY_BATCH_TUNE.opt.getLongOpt(), tune));
+		}
+	}
+
+	// ==========================================================================
+
+	/**
+	 * The state confined to a thread processing batches: its summary navigator and its measures.
+	 */
+	private final class ThreadContext
+	{
+		private Measures measures;
+
+		private ITreeNavigator<NodeInfos<Object>, KVLabel> summaryNavigator;
+
+		private CPUTimeBenchmark q2native;
+
+		private CPUTimeBenchmark batchCompileTime;
+
+		private int batchBranches[], batchCompiledBranches[];
+
+		private int nbPruned[];
+
+		private int nativeDuplicates[];
+
+		private int nbEmptyBatches;
+
+		private LongAdder nbRecords, recordsBytes;
+
+		private CPUTimeBenchmark recordsDecode;
+
+		// The labels of the decoded records
+		private Map<String, KVLabel> labels = new HashMap<>();
+
+		private int nbBatches, nbQueries;
+
+		private explainStats explainTotal;
+
+		private ThreadContext(Measures measures)
+		{
+			this.measures    = measures;
+			q2native         = measures.getTime(TheDemo.TheMeasures.QUERY_TO_NATIVE.measureName());
+			nativeDuplicates = measures.getIntTab("dedup", "natives.duplicates");
+			nbRecords        = measures.getCounter("records", "nb");
+			recordsBytes     = measures.getCounter("records", "bytes");
+			recordsDecode    = measures.getTime("records", "decode");
+
+			if (pruneSubsumed)
+				nbPruned = measures.getIntTab("prune", "subsumed");
+
+			if (batchCompile != BatchCompilers.Mode.OR || batchMergeIn)
+			{
+				batchCompileTime      = measures.getTime("batch.compile", "time");
+				batchBranches         = measures.getIntTab("batch.compile", "branches.in");
+				batchCompiledBranches = measures.getIntTab("batch.compile", "branches.out");
+			}
+		}
+
+		private void countRecord(Object record)
+		{
+			nbRecords.increment();
+			recordsBytes.add(((RawBsonDocument) record).getByteBuffer().remaining());
+		}
+
+		private ITreeNavigator<NodeInfos<Object>, KVLabel> getSummaryNavigator()
+		{
+			if (null == summaryNavigator)
+				summaryNavigator = createSummaryNavigator();
+
+			return summaryNavigator;
+		}
+	}
+
+	private ThreadContext context()
+	{
+		var ret = workerContext.get();
+		return null == ret ? mainContext : ret;
+	}
+
+	/**
+	 * The state of the collection for the result cache.
+	 */
+	private String collectionKey(URI uri, String db, String marker)
+	{
+		String markerValue;
+
+		switch (marker)
+		{
+		case "none":
+			markerValue = "";
+			break;
+		case "maxId":
+		{
+			var last = records.find().projection(Projections.include(partitionID)).sort(Sorts.descending(partitionID)).limit(1).first();
+			markerValue = null == last ? "" : Long.toString(getRecordId(last));
+			break;
+		}
+		default:
+			markerValue = marker;
+		}
+		return String.join("/", uri.getAuthority(), db, collectionName, partitionID, Long.toString(collection.estimatedDocumentCount()), markerValue);
+	}
+
+	/**
+	 * Each collection may use a connection by worker thread and by batch in flight, plus one for the calling thread.
+	 */
+	private int poolSize(Configuration config)
+	{
+		var nbcolls = config.getList("db.collection").size();
+		return nbcolls * (Math.max(1, nbThreads) + batchesInFlight + Math.max(1, emptinessNbThreads) + 1);
 	}
 
 	@Override
@@ -196,6 +444,12 @@ public final class DataAccess implements IDataAccess<Object, KVLabel>
 		return collectionName;
 	}
 
+	@Override
+	public boolean getCheckTerminalLeaf()
+	{
+		return checkTerminalLeaf;
+	}
+
 	@Override
 	public LogicalPartition getLogicalPartition()
 	{
@@ -206,6 +460,31 @@ public final class DataAccess implements IDataAccess<Object, KVLabel>
 	public void setLogicalPartition(LogicalPartition partition)
 	{
 		logicalPartition = partition;
+
+		// Partition intervals are part of the translated fragments
+		if (null != translationCache)
+			translationCache.clear();
+	}
+
+	@Override
+	public void setProjection(Collection<String> fields)
+	{
+		projectIds = null != fields && fields.isEmpty();
+
+		if (null == fields)
+		{
+			projection = null;
+			return;
+		}
+		var include = new ArrayList<String>(fields.size() + 1);
+		include.add(partitionID);
+		include.addAll(fields);
+
+		// Without _id an index on the partition id can cover the query; excludeId would override an include of _id
+		if (partitionID.equals("_id") || fields.contains("_id"))
+			projection = Projections.include(include);
+		else
+			projection = Projections.fields(Projections.include(include), Projections.excludeId());
 	}
 
 	@Override
@@ -214,6 +493,12 @@ public final class DataAccess implements IDataAccess<Object, KVLabel>
 		this.queryFilter = filter;
 	}
 
+	@Override
+	public void setEmptinessFilter(Boolean keepEmpty)
+	{
+		this.emptinessFilter = keepEmpty;
+	}
+
 	private ITreeNavigator<NodeInfos<Object>, KVLabel> createSummaryNavigator()
 	{
 		if (!summaryUrl.isEmpty())
@@ -244,33 +529,76 @@ public final class DataAccess implements IDataAccess<Object, KVLabel>
 			return TreeTypeNavigators.constant(EnumSet.of(NodeType.MULTIPLE));
 	}
 
-	private ITreeNavigator<NodeInfos<Object>, KVLabel> getSummaryNavigator()
+	// ==========================================================================
+
+	public static IDataAccess<Object, KVLabel> open(URI uri, Configuration config, String db, String collection, Measures measures)
 	{
-		if (null == summaryNavigator)
-			summaryNavigator = createSummaryNavigator();
+		var shards = config.getList(String.class, MyOptions.DATA_SHARDS.opt.getLongOpt(), List.of());
 
-		return summaryNavigator;
-	}
+		if (shards.isEmpty())
+			return new DataAccess(uri, config, db, collection, measures);
 
-	// ==========================================================================
+		// The shards run in their own threads: they must not touch the stream chronos of the caller
+		var shardConfig = new CompositeConfiguration(List.of( //
+			new MapConfiguration(Map.of(MyOptions.INHIBIT_BATCH_STREAM_TIME.opt.getLongOpt(), false)), //
+			config));
 
-	public static IDataAccess<Object, KVLabel> open(URI uri, Configuration config, String db, String collection, Measures measures)
+		var accesses       = new ArrayList<IDataAccess<Object, KVLabel>>(shards.size());
+		var shardsMeasures = new ArrayList<Measures>(shards.size());
+
+		for (var shard : shards)
+		{
+			var shardMeasures = new Measures();
+			shardsMeasures.add(shardMeasures);
+			accesses.add(new DataAccess(URI.create(shard), shardConfig, db, collection, shardMeasures));
+		}
+		return new ScatterGatherDataAccess(accesses, shardsMeasures, measures);
+	}
+
+	private static ITree<Object, KVLabel> doc2Tree(BsonDocument doc)
 	{
-		return new DataAccess(uri, config, db, collection, measures);
+		var tb = new TreeBuilder<Object, KVLabel>();
+		tb.setRooted();
+		bson2Tree(tb, doc);
+		return Trees.create(tb);
 	}
 
-	private static ITree<Object, KVLabel> doc2Tree(Document doc)
+	/**
+	 * Decode the bytes of a raw record without materializing its BsonDocument.
+	 */
+	private static ITree<Object, KVLabel> raw2Tree(RawBsonDocument doc, Map<String, KVLabel> labels)
 	{
 		var tb = new TreeBuilder<Object, KVLabel>();
 		tb.setRooted();
-		bson2Tree(tb, doc.toBsonDocument());
+
+		try (var reader = new BsonBinaryReader(doc.getByteBuffer().asNIO()))
+		{
+			bson2Tree(tb, reader, labels);
+		}
 		return Trees.create(tb);
 	}
 
 	@Override
 	public ITree<Object, KVLabel> nativeToTree(Object nativeRecord)
 	{
-		return doc2Tree((Document) nativeRecord);
+		var context = context();
+		var decode  = context.recordsDecode;
+		decode.startChrono();
+		ITree<Object, KVLabel> ret;
+
+		if (nativeRecord instanceof RawBsonDocument)
+			ret = raw2Tree((RawBsonDocument) nativeRecord, context.labels);
+		else
+			ret = doc2Tree((BsonDocument) nativeRecord);
+
+		decode.stopChrono();
+		return ret;
+	}
+
+	@Override
+	public Stream<ITree<Object, KVLabel>> allTrees()
+	{
+		return all().map(this::nativeToTree);
 	}
 
 	@Override
@@ -279,6 +607,18 @@ public final class DataAccess implements IDataAccess<Object, KVLabel>
 		return tree2Query(query);
 	}
 
+	@Override
+	public List<Set<String>> nativeQueryPaths(Object nativeQuery)
+	{
+		return FilterPaths.branches(((Bson) nativeQuery).toBsonDocument(BsonDocument.class, collection.getCodecRegistry()));
+	}
+
+	@Override
+	public void createIndex(List<String> fields)
+	{
+		collection.createIndex(Indexes.ascending(fields));
+	}
+
 	private static void bson2Tree(TreeBuilder<Object, KVLabel> sb, BsonValue doc)
 	{
 		if (doc.isDocument())
@@ -329,13 +669,86 @@ public final class DataAccess implements IDataAccess<Object, KVLabel>
 			throw new IllegalArgumentException(String.format("Cannot handle %s value", doc));
 	}
 
+	/**
+	 * Read a document from a reader positioned on it: the same tree as {@link #bson2Tree(TreeBuilder, BsonValue)} is built.
+	 */
+	private static void bson2Tree(TreeBuilder<Object, KVLabel> sb, BsonReader reader, Map<String, KVLabel> labels)
+	{
+		reader.readStartDocument();
+
+		while (reader.readBsonType() != BsonType.END_OF_DOCUMENT)
+			bson2Tree(sb, reader, labels.computeIfAbsent(reader.readName(), KVLabels::create), labels);
+
+		reader.readEndDocument();
+	}
+
+	private static void bson2Tree(TreeBuilder<Object, KVLabel> sb, BsonReader reader, KVLabel label, Map<String, KVLabel> labels)
+	{
+		var type = reader.getCurrentBsonType();
+
+		switch (type)
+		{
+		case DOCUMENT:
+			sb.addChildDown(label);
+			bson2Tree(sb, reader, labels);
+			sb.goUp();
+			break;
+		case ARRAY:
+			reader.readStartArray();
+
+			while (reader.readBsonType() != BsonType.END_OF_DOCUMENT)
+				bson2Tree(sb, reader, label, labels);
+
+			reader.readEndArray();
+			break;
+		case STRING:
+			sb.addChildDown(label).setValue(reader.readString()).setTerminal();
+			sb.goUp();
+			break;
+		case INT32:
+			sb.addChildDown(label).setValue(Double.valueOf(reader.readInt32())).setTerminal();
+			sb.goUp();
+			break;
+		case INT64:
+			sb.addChildDown(label).setValue(Double.valueOf(reader.readInt64())).setTerminal();
+			sb.goUp();
+			break;
+		case DOUBLE:
+			sb.addChildDown(label).setValue(Double.valueOf(reader.readDouble())).setTerminal();
+			sb.goUp();
+			break;
+		case DECIMAL128:
+			sb.addChildDown(label).setValue(Double.valueOf(reader.readDecimal128().bigDecimalValue().doubleValue())).setTerminal();
+			sb.goUp();
+			break;
+		case NULL:
+			reader.readNull();
+			sb.addChildDown(label).setTerminal().goUp();
+			break;
+		case OBJECT_ID:
+			sb.addChildDown(label).setValue(reader.readObjectId().toString()).setTerminal();
+			sb.goUp();
+			break;
+		default:
+			throw new IllegalArgumentException(String.format("Cannot handle %s value", type));
+		}
+	}
+
 	private Bson tree2Query(ITree<Object, KVLabel> tree)
 	{
-		return tree2Query(tree, getSummaryNavigator());
+		if (null != emptinessFilter)
+		{
+			var bsonq = checkedNatives.remove(tree);
+
+			if (null != bsonq)
+				return bsonq;
+		}
+		return tree2Query(tree, context().getSummaryNavigator());
 	}
 
 	private Bson tree2Query(ITree<Object, KVLabel> tree, ITreeNavigator<NodeInfos<Object>, KVLabel> summaryNavigator)
 	{
+		var q2native = context().q2native;
 		q2native.startChrono();
 		BsonDocument filter = tree2Query_(tree, summaryNavigator);
 		q2native.stopChrono();
@@ -357,7 +770,8 @@ public final class DataAccess implements IDataAccess<Object, KVLabel>
 			tbuilder.addChildDown(0).setLabel(KVLabels.create(partitionID)).setValue(logicalPartition.getInterval()).setTerminal();
 			tree = Trees.create(tbuilder);
 		}
-		return tree2Query(tree, tree.getRoot(), summaryNavigator, EnumSet.of(NodeType.OBJECT));
+		var subtreeKeys = null == translationCache ? null : TreeKeys.ofSubtrees(tree);
+		return tree2Query(tree, tree.getRoot(), summaryNavigator, EnumSet.of(NodeType.OBJECT), subtreeKeys);
 	}
 
 	private static boolean isExists_op(BsonValue val)
@@ -436,68 +850,89 @@ public final class DataAccess implements IDataAccess<Object, KVLabel>
 	// ==========================================================================
 
 	private BsonDocument tree2Query( //
-		ITree<Object, KVLabel> tree, INode<Object, KVLabel> node, ITreeNavigator<NodeInfos<Object>, KVLabel> summaryNavigator, EnumSet<NodeType> type)
+		ITree<Object, KVLabel> tree, INode<Object, KVLabel> node, ITreeNavigator<NodeInfos<Object>, KVLabel> summaryNavigator, EnumSet<NodeType> type, //
+		Map<INode<Object, KVLabel>, String> subtreeKeys)
 	{
 		var childs   = tree.getChildren(node);
 		var nbChilds = childs.size();
 
 		if (0 == nbChilds)
 			return documentFromNodeValue(node, type);
+		else if (null == subtreeKeys)
+			return tree2QueryNode(tree, node, summaryNavigator, type, null);
 		else
 		{
-			List<BsonDocument> bsonChilds = new ArrayList<>();
-			Bag<String>        keyBag     = new HashBag<>();
-
-			var currentPos = summaryNavigator.getCurrentNode();
+			var subtreeKey = subtreeKeys.get(node);
+			var position   = summaryNavigator.getCurrentNode();
+			var ret        = translationCache.get(subtreeKey, position, type);
 
+			if (null == ret)
 			{
-				var value = node.getValue();
-
-				if (value != null && !KVValues.interpretation().isAny(value))
-					throw new Error(String.format("Intermediary node has a value: %s", value));
+				ret = tree2QueryNode(tree, node, summaryNavigator, type, subtreeKeys);
+				translationCache.put(subtreeKey, position, type, ret);
 			}
+			return ret;
+		}
+	}
 
-			// Construct a BsonDocument for each child
-			for (var c : childs)
-			{
-				var label       = c.getLabel();
-				var labelPrefix = label.asString() + ".";
+	private BsonDocument tree2QueryNode( //
+		ITree<Object, KVLabel> tree, INode<Object, KVLabel> node, ITreeNavigator<NodeInfos<Object>, KVLabel> summaryNavigator, EnumSet<NodeType> type, //
+		Map<INode<Object, KVLabel>, String> subtreeKeys)
+	{
+		var childs = tree.getChildren(node);
 
-				summaryNavigator.setCurrentNode(currentPos);
-				summaryNavigator.followFirstPath(List.of(label));
+		List<BsonDocument> bsonChilds = new ArrayList<>();
+		Bag<String>        keyBag     = new HashBag<>();
 
-				var doc = tree2Query(tree, c.getChild(), summaryNavigator, summaryNavigator.getCurrentNode().getValue().getNodeTypes());
-				doc = makeTheLabelDocument(label.asString(), labelPrefix, doc);
+		var currentPos = summaryNavigator.getCurrentNode();
 
-				if (doc.isDocument())
-					keyBag.addAll(doc.keySet());
+		{
+			var value = node.getValue();
 
-				bsonChilds.add(doc);
-			}
-			BsonDocument ret;
+			if (value != null && !KVValues.interpretation().isAny(value))
+				throw new Error(String.format("Intermediary node has a value: %s", value));
+		}
 
-			// Has some childs with the same label
-			if (keyBag.stream().anyMatch(k -> keyBag.getCount(k) > 1))
-			{
-				ret = deduplicateChilds(bsonChilds, keyBag);
+		// Construct a BsonDocument for each child
+		for (var c : childs)
+		{
+			var label       = c.getLabel();
+			var labelPrefix = label.asString() + ".";
 
-				if (null == ret)
-					ret = makeAnd(bsonChilds);
-			}
-			else
-			{
-				ret = new BsonDocument();
+			summaryNavigator.setCurrentNode(currentPos);
+			summaryNavigator.followFirstPath(List.of(label));
 
-				for (var d : bsonChilds)
-					for (var k : d.keySet())
-						ret.append(k, d.get(k));
-			}
+			var doc = tree2Query(tree, c.getChild(), summaryNavigator, summaryNavigator.getCurrentNode().getValue().getNodeTypes(), subtreeKeys);
+			doc = makeTheLabelDocument(label.asString(), labelPrefix, doc);
 
-			if (NodeType.isMultiple(type))
-				ret = new BsonDocument("$elemMatch", ret);
+			if (doc.isDocument())
+				keyBag.addAll(doc.keySet());
 
-			return ret;
+			bsonChilds.add(doc);
+		}
+		BsonDocument ret;
+
+		// Has some childs with the same label
+		if (keyBag.stream().anyMatch(k -> keyBag.getCount(k) > 1))
+		{
+			ret = deduplicateChilds(bsonChilds, keyBag);
+
+			if (null == ret)
+				ret = makeAnd(bsonChilds);
 		}
+		else
+		{
+			ret = new BsonDocument();
+
+			for (var d : bsonChilds)
+				for (var k : d.keySet())
+					ret.append(k, d.get(k));
+		}
+
+		if (NodeType.isMultiple(type))
+			ret = new BsonDocument("$elemMatch", ret);
+
+		return ret;
 	}
 
 	private static BsonValue simplifyOne(BsonValue doc, String key)
@@ -681,29 +1116,40 @@ public final class DataAccess implements IDataAccess<Object, KVLabel>
 	@Override
 	public Stream<Object> all()
 	{
-		FindIterable<Document> cursor;
+		Bson filter;
 
 		if (!logicalPartition.getInterval().isNull())
-			cursor = collection.find(partitionFilter(logicalPartition));
+			filter = partitionFilter(logicalPartition);
 		else if (!logicalPartition.isNull())
 		{
-			summaryNavigator = TreeTypeNavigators.constant(EnumSet.of(NodeType.OBJECT));
 			var prefixTree = logicalPartition.getPrefix();
-			cursor           = collection.find(tree2Query(prefixTree));
-			summaryNavigator = null;
+			filter = tree2Query(prefixTree, TreeTypeNavigators.constant(EnumSet.of(NodeType.OBJECT)));
 		}
 		else
-			cursor = collection.find();
+			filter = bsonEmptyDocument;
 
+		return wrapDocumentCursor(findRecords(filter));
+	}
+
+	/**
+	 * Find some records with the projection and the batch size of the configuration.
+	 */
+	private FindIterable<RawBsonDocument> findRecords(Bson filter)
+	{
+		var cursor = records.find(filter);
+
+		if (null != projection)
+			cursor.projection(projection);
 		if (dataBatchSize > 0)
 			cursor.batchSize(dataBatchSize);
 
-		return HelpStream.<Object>toStreamDownCast(cursor);
+		return cursor;
 	}
 
-	private Stream<Object> wrapDocumentCursor(FindIterable<Document> cursor)
+	private Stream<Object> wrapDocumentCursor(FindIterable<RawBsonDocument> cursor)
 	{
-		return HelpStream.<Object>toStreamDownCast(cursor);
+		var ctx = context();
+		return HelpStream.<Object>toStreamDownCast(cursor).peek(ctx::countRecord);
 	}
 
 	@Override
@@ -721,11 +1167,56 @@ public final class DataAccess implements IDataAccess<Object, KVLabel>
 
 	// ==========================================================================
 
+	private Stream<ITree<Object, KVLabel>> dedupTrees(Stream<ITree<Object, KVLabel>> queries)
+	{
+		if (!dedupTrees)
+			return queries;
+
+		var fingerprints = new FingerprintSet(dedupMemory, dedupSpillDir);
+
+		return queries.filter(q -> {
+
+			if (fingerprints.add(Fingerprint.of(TreeKeys.canonical(q))))
+				return true;
+
+			treeDuplicates.increment();
+			return false;
+		}).onClose(fingerprints::close);
+	}
+
+	private <T> Stream<T> dedupNatives(Stream<T> queries, Function<T, Bson> getNative)
+	{
+		if (!dedupNatives)
+			return queries;
+
+		var fingerprints = new FingerprintSet(dedupMemory, dedupSpillDir);
+
+		return queries.filter(q -> {
+
+			if (fingerprints.add(BsonCanonicals.fingerprint(getNative.apply(q).toBsonDocument())))
+				return true;
+
+			context().nativeDuplicates[0]++;
+			return false;
+		}).onClose(fingerprints::close);
+	}
+
 	public Stream<ITree<Object, KVLabel>> wrapQueries(Stream<ITree<Object, KVLabel>> queries)
 	{
+		queries = dedupTrees(queries);
+
 		if (queryFilter != null)
-			return queries.filter(queryFilter);
+			queries = queries.filter(queryFilter);
+
+		if (null != emptinessFilter)
+		{
+			boolean keepEmpty = emptinessFilter;
 
+			queries = hasAnswers(queries).filter(t -> t.getRight() != keepEmpty).map(t -> {
+				checkedNatives.put(t.getLeft(), (Bson) t.getMiddle());
+				return t.getLeft();
+			}).onClose(checkedNatives::clear);
+		}
 		return queries;
 	}
 
@@ -733,46 +1224,433 @@ public final class DataAccess implements IDataAccess<Object, KVLabel>
 	public Stream<Triple<ITree<Object, KVLabel>, Object, Stream<Object>>> executeEach(Stream<ITree<Object, KVLabel>> queries)
 	{
 		queries = wrapQueries(queries);
-		return queries.map(q -> {
-			var bsonq  = tree2Query(q);
-			var cursor = collection.find(bsonq);
-			return Triple.of(q, bsonq, wrapDocumentCursor(cursor));
+		var natives = dedupNatives(queries.map(q -> Pair.of(q, tree2Query(q))), Pair::getRight);
+
+		return natives.map(p -> {
+			var bsonq  = p.getRight();
+			var cursor = findRecords(bsonq);
+			return Triple.of(p.getLeft(), bsonq, wrapDocumentCursor(cursor));
 		});
 	}
 
 	@Override
 	public boolean hasAnswer(ITree<Object, KVLabel> query)
 	{
-		var bsonq  = tree2Query(query);
-		var cursor = collection.find(bsonq).limit(1);
+		var bsonq = tree2Query(query);
+
+		if (null == cache)
+			return hasAnswer(bsonq);
+
+		var key = cache.key("exists", bsonq.toBsonDocument());
+		var hit = cache.get(key);
+
+		if (hit.isPresent())
+			return hit.get().length > 0;
+
+		var ret = hasAnswer(bsonq);
+		cache.put(key, ret ? new long[] { 1 } : new long[0]);
+		return ret;
+	}
+
+	private boolean hasAnswer(Bson bsonq)
+	{
+		var cursor = records.find(bsonq).projection(Projections.include(partitionID)).limit(1);
 		return null != cursor.first();
 	}
 
+	/**
+	 * The queries are checked by batches of {@link #emptinessBatchSize} in one aggregation:
+	 * each query is a $match limited to one record in a $unionWith sub-pipeline, so that each one can use the indexes.
+	 */
+	@Override
+	public Stream<Triple<ITree<Object, KVLabel>, Object, Boolean>> hasAnswers(Stream<ITree<Object, KVLabel>> queries)
+	{
+		var nbChecked = measures.getLongTab("emptiness", "queries");
+		var nbEmpty   = measures.getLongTab("emptiness", "empty");
+		var nbBatches = measures.getLongTab("emptiness", "batches");
+		var batches   = HelpStream.batch(queries.map(q -> Pair.of(q, tree2Query(q))), emptinessBatchSize, new long[2]);
+
+		Stream<List<Triple<ITree<Object, KVLabel>, Object, Boolean>>> checked;
+
+		if (emptinessNbThreads > 1)
+			checked = Pipelines.parallel(batches, emptinessNbThreads, 2 * emptinessNbThreads, true, "emptiness-" + collectionName, //
+				i -> this::hasAnswers, () -> {
+				});
+		else
+			checked = batches.map(this::hasAnswers);
+
+		return checked.peek(b -> nbBatches[0]++).flatMap(List::stream).peek(t -> {
+			nbChecked[0]++;
+
+			if (!t.getRight())
+				nbEmpty[0]++;
+		});
+	}
+
+	private List<Triple<ITree<Object, KVLabel>, Object, Boolean>> hasAnswers(List<Pair<ITree<Object, KVLabel>, Bson>> batch)
+	{
+		var pipeline = new ArrayList<Bson>();
+		var found    = new boolean[batch.size()];
+		var keys     = new Fingerprint[batch.size()];
+
+		for (int i = 0, c = batch.size(); i < c; i++)
+		{
+			var bsonq = batch.get(i).getRight();
+
+			if (null != cache)
+			{
+				var key = cache.key("exists", bsonq.toBsonDocument());
+				var hit = cache.get(key);
+
+				if (hit.isPresent())
+				{
+					found[i] = hit.get().length > 0;
+					continue;
+				}
+				keys[i] = key;
+			}
+			var check = List.of( //
+				Aggregates.match(bsonq), //
+				Aggregates.limit(1), //
+				Aggregates.project(Projections.fields(Projections.excludeId(), Projections.computed("q", new BsonDocument("$literal", new BsonInt32(i))))));
+
+			if (pipeline.isEmpty())
+				pipeline.addAll(check);
+			else
+				pipeline.add(Aggregates.unionWith(collectionName, check));
+		}
+
+		if (!pipeline.isEmpty())
+			for (var doc : records.aggregate(pipeline))
+				found[doc.getInt32("q").getValue()] = true;
+
+		var ret = new ArrayList<Triple<ITree<Object, KVLabel>, Object, Boolean>>(batch.size());
+
+		for (int i = 0, c = batch.size(); i < c; i++)
+		{
+			if (null != keys[i])
+				cache.put(keys[i], found[i] ? new long[] { 1 } : new long[0]);
+
+			ret.add(Triple.of(batch.get(i).getLeft(), batch.get(i).getRight(), found[i]));
+		}
+		return ret;
+	}
+
 	@SuppressWarnings("unchecked")
 	private Stream<Object> executeNative(List<? extends Object> queries)
 	{
 		return executeBson((List<Bson>) queries);
 	}
 
-	private Stream<Object> explainBson(Iterable<Bson> queries)
+	private Bson compileBatch(Iterable<Bson> queries)
+	{
+		if (batchCompile == BatchCompilers.Mode.OR && !batchMergeIn)
+			return Filters.or(queries);
+
+		var ctx = context();
+		ctx.batchCompileTime.startChrono();
+		List<BsonDocument> branches = new ArrayList<>();
+
+		for (var q : queries)
+			branches.add(q.toBsonDocument());
+
+		ctx.batchBranches[0] += branches.size();
+
+		if (batchMergeIn)
+			branches = BatchCompilers.mergeIn(branches);
+
+		var ret = batchCompile == BatchCompilers.Mode.FACTOR //
+			? BatchCompilers.factor(branches) //
+			: BatchCompilers.or(branches);
+		ctx.batchCompileTime.stopChrono();
+
+		ctx.batchCompiledBranches[0] += BatchCompilers.nbBranches(ret);
+		return ret;
+	}
+
+	private Stream<Object> explainBson(List<Bson> queries)
 	{
-		var disjunction = Filters.or(queries);
+		var start       = System.nanoTime();
+		var disjunction = compileBatch(queries);
+		var key         = null == cache ? null : cache.key("explain", disjunction.toBsonDocument());
 
+		if (null != key)
+		{
+			var hit = cache.get(key);
+
+			// The stored server time is not a new measurement: it goes to its own measure, the hit takes no db time
+			if (hit.isPresent())
+			{
+				context().measures.getTime("cache", "explain.time").plus(Duration.ofMillis(hit.get()[1]), EnumSet.of(TIME.REAL));
+				return Stream.of(explainStats(hit.get()[0], 0));
+			}
+		}
 		var cursor = collection.find(disjunction);
 		var stats  = cursor.explain(ExplainVerbosity.EXECUTION_STATS);
+
+		if (null != tuner)
+			tuner.record(queries.size(), (int) explainStats(stats).getNbAnswers(), System.nanoTime() - start);
+
+		if (null != key)
+		{
+			var executionStats = stats.getEmbedded(List.of("executionStats"), Document.class);
+			cache.put(key, new long[] { executionStats.getInteger("nReturned"), executionStats.getInteger("executionTimeMillis") });
+		}
 		return Stream.of(stats);
 	}
 
-	private Stream<Object> executeBson(Iterable<Bson> queries)
+	private Stream<Object> executeBson(List<Bson> queries)
 	{
-		var disjunction = Filters.or(queries);
+		// Only the batches of ids are cached, the others keep the streaming cursor
+		if (null != cache && projectIds)
+			return executeDrained(queries).stream();
 
-		var cursor = collection.find(disjunction);
+		var start       = System.nanoTime();
+		var disjunction = compileBatch(queries);
 
-		if (dataBatchSize > 0)
-			cursor.batchSize(dataBatchSize);
+		var cursor = findRecords(disjunction);
+		return tuneAnswers(wrapDocumentCursor(cursor), queries.size(), start);
+	}
+
+	/**
+	 * Record the batch in the tuner when its answers are consumed.
+	 */
+	private Stream<Object> tuneAnswers(Stream<Object> answers, int nbQueries, long start)
+	{
+		if (null == tuner)
+			return answers;
+
+		int nbAnswers[] = { 0 };
+		return answers.peek(a -> nbAnswers[0]++).onClose(() -> tuner.record(nbQueries, nbAnswers[0], System.nanoTime() - start));
+	}
+
+	/**
+	 * Send a batch and get all its answers.
+	 */
+	private List<Object> executeDrained(List<Bson> batch)
+	{
+		var start = System.nanoTime();
+		var ret   = findDrained(compileBatch(batch));
+
+		if (null != tuner)
+			tuner.record(batch.size(), ret.size(), System.nanoTime() - start);
+
+		return ret;
+	}
+
+	/**
+	 * Find and drain the records of a filter.
+	 * When only the record ids are projected the ids are stored in the result cache, and a hit gives records made of the ids.
+	 */
+	private List<Object> findDrained(Bson filter)
+	{
+		if (null == cache || !projectIds)
+			return drain(findRecords(filter).iterator());
+
+		var key = cache.key("find", filter.toBsonDocument());
+		var hit = cache.get(key);
+
+		if (hit.isPresent())
+			return LongStream.of(hit.get()).mapToObj(this::idRecord).collect(Collectors.toList());
+
+		var ret = drain(findRecords(filter).iterator());
+		cache.put(key, ret.stream().mapToLong(this::getRecordId).toArray());
+		return ret;
+	}
+
+	private Object idRecord(long id)
+	{
+		return new RawBsonDocument(new BsonDocument(partitionID, new BsonInt64(id)), idCodec);
+	}
+
+	/**
+	 * Send a batch: the first batch of records is fetched before the return.
+	 */
+	private MongoCursor<RawBsonDocument> openBson(Iterable<Bson> queries)
+	{
+		return findRecords(compileBatch(queries)).iterator();
+	}
 
-		return wrapDocumentCursor(cursor);
+	private Stream<Object> wrapMongoCursor(MongoCursor<RawBsonDocument> cursor)
+	{
+		var ctx = context();
+		return StreamSupport.stream(Spliterators.<Object>spliteratorUnknownSize(cursor, Spliterator.ORDERED), false).onClose(cursor::close) //
+			.peek(ctx::countRecord);
+	}
+
+	/**
+	 * Translate and send the batches in another thread, at most {@link #batchesInFlight} batches ahead of the consumption of the answers.
+	 */
+	private Stream<Object> executePipelined(Stream<List<Bson>> batches)
+	{
+		// A cached batch of ids has no cursor
+		if (null != cache && projectIds)
+		{
+			var answers = Pipelines.prefetch(batches.map(this::executeDrained), batchesInFlight, "batches-" + collectionName, b -> {
+			});
+
+			if (inhibitBatchStreamTime)
+				answers = HelpStream.clamp(answers, this::inhibitBatch_start, this::inhibitBatch_end);
+
+			return answers.flatMap(List::stream);
+		}
+		var cursors = Pipelines.prefetch( //
+			batches.map(b -> Triple.of(b.size(), System.nanoTime(), openBson(b))), //
+			batchesInFlight, "batches-" + collectionName, t -> t.getRight().close());
+
+		// Only the waiting of the next batch is in the consumer thread
+		if (inhibitBatchStreamTime)
+			cursors = HelpStream.clamp(cursors, this::inhibitBatch_start, this::inhibitBatch_end);
+
+		return cursors.flatMap(t -> tuneAnswers(wrapMongoCursor(t.getRight()), t.getLeft(), t.getMiddle()));
+	}
+
+	private List<Object> drain(MongoCursor<RawBsonDocument> cursor)
+	{
+		var ctx = context();
+
+		try (cursor)
+		{
+			var ret = new ArrayList<Object>();
+
+			cursor.forEachRemaining(r -> {
+				ctx.countRecord(r);
+				ret.add(r);
+			});
+			return ret;
+		}
+	}
+
+	/**
+	 * Process the batches with {@link #nbThreads} workers, each one with its own {@link ThreadContext}.
+	 * At the end the measures of the workers are added to {@link #measures} with a 'thread.N.' prefix.
+	 * 
+	 * @param onEnd called with the contexts of the workers when they are all ended, before the merge of their measures
+	 */
+	private <T, R> Stream<R> parallel(Stream<T> batches, Function<T, R> process, Consumer<ThreadContext[]> onEnd)
+	{
+		var contexts = new ThreadContext[nbThreads];
+		var capacity = batchesInFlight > 0 ? batchesInFlight : 2 * nbThreads;
+
+		measures.set("threads", "nb", nbThreads);
+
+		return Pipelines.<T, R>parallel(batches, nbThreads, capacity, batchesOrdered, "batches-" + collectionName, i -> {
+			var ctx        = new ThreadContext(new Measures());
+			var threadTime = ctx.measures.getTime("thread", "time");
+
+			workerContext.set(ctx);
+			threadTime.startChrono();
+
+			return new Pipelines.Worker<T, R>()
+			{
+				@Override
+				public R process(T batch) throws InterruptedException
+				{
+					if (null == tuner)
+						return process.apply(batch);
+
+					tuner.acquireWorker();
+					try
+					{
+						return process.apply(batch);
+					}
+					finally
+					{
+						tuner.releaseWorker();
+					}
+				}
+
+				@Override
+				public void end()
+				{
+					threadTime.stopChrono();
+					workerContext.remove();
+					contexts[i] = ctx;
+				}
+			};
+		}, () -> {
+			onEnd.accept(contexts);
+
+			for (int i = 0; i < nbThreads; i++)
+			{
+				var rmeasures = contexts[i].measures;
+				rmeasures.setPrefix(String.format("thread.%d.", i + 1));
+				measures.addAll(rmeasures);
+			}
+		});
+	}
+
+	private Stream<Object> executeParallel(Stream<List<Bson>> batches)
+	{
+		return flatParallel(parallel(batches, this::executeDrained, contexts -> {
+		}));
+	}
+
+	private Stream<Object> flatParallel(Stream<List<Object>> answers)
+	{
+		// Only the waiting of the next answers is in the consumer thread
+		if (inhibitBatchStreamTime)
+			answers = HelpStream.clamp(answers, this::inhibitBatch_start, this::inhibitBatch_end);
+
+		return answers.flatMap(List::stream);
+	}
+
+	/**
+	 * The translation of the queries is made by the workers, so the native duplicates and the emptied batches are removed from the counts at the end.
+	 */
+	private Stream<Object> executeTreesParallel(Stream<List<ITree<Object, KVLabel>>> batches)
+	{
+		var fingerprints = dedupNatives ? new FingerprintSet(dedupMemory, dedupSpillDir) : null;
+
+		var answers = parallel(batches, b -> executeTrees(b, fingerprints), contexts -> {
+
+			for (var ctx : contexts)
+			{
+				nbQueries[0] -= ctx.nativeDuplicates[0];
+				nbQueries[1] -= ctx.nbEmptyBatches;
+			}
+		});
+
+		if (null != fingerprints)
+			answers = answers.onClose(fingerprints::close);
+
+		return flatParallel(answers);
+	}
+
+	private List<Object> executeTrees(List<ITree<Object, KVLabel>> batch, FingerprintSet fingerprints)
+	{
+		var bsonqs = translateTrees(batch, fingerprints);
+
+		if (bsonqs.isEmpty())
+		{
+			context().nbEmptyBatches++;
+			return List.of();
+		}
+		return executeDrained(bsonqs);
+	}
+
+	/**
+	 * Translate a batch in a worker, without the native duplicates and the subsumed queries like {@link #batchQueries(Stream)}.
+	 */
+	private List<Bson> translateTrees(List<ITree<Object, KVLabel>> batch, FingerprintSet fingerprints)
+	{
+		var ctx     = context();
+		var natives = new ArrayList<Pair<ITree<Object, KVLabel>, Bson>>(batch.size());
+
+		for (var q : batch)
+		{
+			var bsonq = tree2Query(q);
+
+			if (null != fingerprints && !fingerprints.add(BsonCanonicals.fingerprint(bsonq.toBsonDocument())))
+			{
+				ctx.nativeDuplicates[0]++;
+				continue;
+			}
+			natives.add(Pair.of(q, bsonq));
+		}
+		return pruneSubsumed //
+			? pruneBatch(natives) //
+			: natives.stream().map(Pair::getRight).collect(Collectors.toList());
 	}
 
 	@Override
@@ -804,6 +1682,27 @@ public final class DataAccess implements IDataAccess<Object, KVLabel>
 		};
 	}
 
+	private static explainStats explainStats(long nbAnswers, long millis)
+	{
+		var benchTime = new CPUTimeBenchmark();
+		benchTime.plus(Duration.ofMillis(millis), EnumSet.of(TIME.REAL));
+
+		return new explainStats()
+		{
+			@Override
+			public CPUTimeBenchmark getTime()
+			{
+				return benchTime;
+			}
+
+			@Override
+			public long getNbAnswers()
+			{
+				return nbAnswers;
+			}
+		};
+	}
+
 	private explainStats emptyStats()
 	{
 		var cpu = new CPUTimeBenchmark();
@@ -861,9 +1760,16 @@ public final class DataAccess implements IDataAccess<Object, KVLabel>
 
 	private <T> Stream<List<T>> batchIt(Stream<T> stream, int batchSize, long[] nbItems)
 	{
-		var batch = HelpStream.batch(stream, batchSize, nbItems);
+		return batchIt(stream, batchSize, nbItems, inhibitBatchStreamTime);
+	}
+
+	private <T> Stream<List<T>> batchIt(Stream<T> stream, int batchSize, long[] nbItems, boolean inhibit)
+	{
+		var batch = null == tuner //
+			? HelpStream.batch(stream, batchSize, nbItems) //
+			: tuner.batch(stream, nbItems);
 
-		if (inhibitBatchStreamTime)
+		if (inhibit)
 			batch = HelpStream.clamp(batch, this::inhibitBatch_start, this::inhibitBatch_end);
 
 		return batch;
@@ -873,14 +1779,43 @@ public final class DataAccess implements IDataAccess<Object, KVLabel>
 
 	private long[] nbQueries;
 
+	/**
+	 * Translate and batch some (wrapped) queries.
+	 */
+	private Stream<List<Bson>> batchQueries(Stream<ITree<Object, KVLabel>> queries)
+	{
+		return batchQueries(queries, inhibitBatchStreamTime);
+	}
+
+	private Stream<List<Bson>> batchQueries(Stream<ITree<Object, KVLabel>> queries, boolean inhibit)
+	{
+		if (!pruneSubsumed)
+			return batchIt(dedupNatives(queries.map(this::tree2Query), Function.identity()), queryBatchSize, nbQueries, inhibit);
+
+		var natives = dedupNatives(queries.map(q -> Pair.of(q, tree2Query(q))), Pair::getRight);
+		return batchIt(natives, queryBatchSize, nbQueries, inhibit).map(this::pruneBatch);
+	}
+
+	private List<Bson> pruneBatch(List<Pair<ITree<Object, KVLabel>, Bson>> batch)
+	{
+		var kept = TreeContainment.pruneSubsumed(batch, Pair::getLeft);
+		context().nbPruned[0] += batch.size() - kept.size();
+		return kept.stream().map(Pair::getRight).collect(Collectors.toList());
+	}
+
 	@Override
 	public Stream<Object> execute(Stream<ITree<Object, KVLabel>> queries)
 	{
 		nbQueries = new long[] { 0, 0 };
 		queries   = wrapQueries(queries);
-		var batch = batchIt(queries.map(this::tree2Query), queryBatchSize, nbQueries);
 
-		return batch.flatMap(this::executeBson);
+		// The batches are made in the producer thread: its time is not in the result stream
+		if (nbThreads > 1)
+			return executeTreesParallel(batchIt(queries, queryBatchSize, nbQueries, false));
+		if (batchesInFlight > 0)
+			return executePipelined(batchQueries(queries, false));
+
+		return batchQueries(queries).flatMap(this::executeBson);
 	}
 
 	@Override
@@ -894,122 +1829,76 @@ public final class DataAccess implements IDataAccess<Object, KVLabel>
 		if (nbThreads == 1)
 		{
 			nbQueries = new long[] { 0, 0 };
-			var batch = batchIt(queries.map(this::tree2Query), queryBatchSize, nbQueries);
-
-			return batch.flatMap(this::explainBson);
+			return batchQueries(queries).flatMap(this::explainBson);
 		}
 		else
 			return explainParallel(queries);
 	}
 
-	private boolean explainParallel_end;
-
+	/**
+	 * The workers pull whole batches of queries, translate them with their own summary navigator and explain them.
+	 * The queries are not copied: tree2Query finds by identity the translations made by the emptiness filter.
+	 */
 	private Stream<Object> explainParallel(Stream<ITree<Object, KVLabel>> queries)
 	{
-		try
-		{
-			explainParallel_end = false;
-
-			var queriesQueue = new ArrayBlockingQueue<ITree<Object, KVLabel>>(queryBatchSize * nbThreads);
-			var futures      = new ArrayList<Future<Pair<explainStats, Measures>>>(nbThreads);
-			var execService  = Executors.newFixedThreadPool(nbThreads);
-
-			for (int i = 0; i < nbThreads; i++)
-				futures.add(execService.submit(explainCallable(queriesQueue, i)));
-
-			execService.shutdown();
-			var threadMeas = measures.getTime("threads.time");
-
-			measures.set("threads", "nb", nbThreads);
-
-			threadMeas.startChrono();
-
-			for (var q : HelpStream.toIterable(queries))
-				queriesQueue.put(Trees.create(q));
-
-			explainParallel_end = true;
+		nbQueries = new long[] { 0, 0 };
 
-			while (!execService.isTerminated())
-				execService.awaitTermination(10, TimeUnit.SECONDS);
+		var fingerprints = dedupNatives ? new FingerprintSet(dedupMemory, dedupSpillDir) : null;
+		var batches      = batchIt(queries, queryBatchSize, nbQueries, false);
+		var threadMeas   = measures.getTime("threads.time");
 
-			threadMeas.stopChrono();
+		List<List<Object>> stats;
+		threadMeas.startChrono();
 
-			var stats = new ArrayList<Object>(nbThreads);
-			nbQueries = new long[] { 0, 0 };
-			int i = 0;
+		// The workers may use the fingerprints after the end of the batches
+		try (var results = parallel(batches, b -> explainTrees(b, fingerprints), contexts -> {
 
-			for (var f : futures)
+			for (var ctx : contexts)
 			{
-				i++;
-				var res       = f.get();
-				var rStats    = res.getKey();
-				var rmeasures = res.getValue();
-
-				rmeasures.setPrefix(String.format("thread.%d.", i));
-				measures.addAll(rmeasures);
+				nbQueries[0] -= ctx.nativeDuplicates[0];
+				nbQueries[1] -= ctx.nbEmptyBatches;
 
-				stats.add(rStats);
-				int qtotal  = rmeasures.getInt("queries", "total");
-				int batchNb = rmeasures.getInt("queries", "batch.nb");
+				var total = null == ctx.explainTotal ? emptyStats() : ctx.explainTotal;
 
-				nbQueries[0] += qtotal;
-				nbQueries[1] += batchNb;
+				ctx.measures.set("queries", "total", ctx.nbQueries);
+				ctx.measures.set("queries", "batch.nb", ctx.nbBatches);
+				ctx.measures.set("answers", "total", (int) total.getNbAnswers());
+				ctx.measures.set(TheDemo.TheMeasures.QEVAL_STATS_DB_TIME.measureName(), total.getTime());
 			}
-			return stats.stream();
+		}))
+		{
+			stats = results.collect(Collectors.toList());
 		}
-		catch (InterruptedException | ExecutionException e)
+		finally
 		{
-			throw new Error(e);
+			if (null != fingerprints)
+				fingerprints.close();
 		}
+		threadMeas.stopChrono();
+
+		return stats.stream().flatMap(List::stream);
 	}
 
-	public Callable<Pair<explainStats, Measures>> explainCallable(BlockingQueue<ITree<Object, KVLabel>> queries, int i)
+	private List<Object> explainTrees(List<ITree<Object, KVLabel>> batch, FingerprintSet fingerprints)
 	{
-		return () -> {
-			var threadMeasures = new Measures();
-			var threadTime     = threadMeasures.getTime("thread", "time");
-
-			var tqueriesList = new ArrayList<ITree<Object, KVLabel>>(queryBatchSize);
-			var queriesList  = new ArrayList<Bson>(queryBatchSize);
-			var count        = 0;
-
-			var summaryNavigator = createSummaryNavigator();
-
-			explainStats totalStats = emptyStats();
-
-			int nbBatches = 0, nbQueries = 0;
-
-			threadTime.startChrono();
-			while (!explainParallel_end || !queries.isEmpty())
-			{
-				count += queries.drainTo(tqueriesList, queryBatchSize - tqueriesList.size());
-
-				if (count == 0)
-					continue;
+		var ctx        = context();
+		var duplicates = ctx.nativeDuplicates[0];
+		var bsonqs     = translateTrees(batch, fingerprints);
+		ctx.nbQueries += batch.size() - (ctx.nativeDuplicates[0] - duplicates);
 
-				if ((explainParallel_end && count != 0) || count == queryBatchSize)
-				{
-					nbQueries += count;
-					nbBatches++;
+		if (bsonqs.isEmpty())
+		{
+			ctx.nbEmptyBatches++;
+			return List.of();
+		}
+		ctx.nbBatches++;
 
-					var statsList = explainBson(tqueriesList.stream().map(t -> tree2Query(t, summaryNavigator)).collect(Collectors.toList())) //
-						.collect(Collectors.toList());
+		var statsList = explainBson(bsonqs).collect(Collectors.toList());
 
-					for (var stats : statsList)
-						totalStats = addStats(totalStats, stats);
+		for (var stats : statsList)
+			ctx.explainTotal = null == ctx.explainTotal ? explainStats(stats) : addStats(ctx.explainTotal, stats);
 
-					queriesList.clear();
-					tqueriesList.clear();
-					count = 0;
-				}
-			}
-			threadMeasures.set("queries", "total", nbQueries);
-			threadMeasures.set("queries", "batch.nb", nbBatches);
-			threadMeasures.set("answers", "total", (int) totalStats.getNbAnswers());
-			threadMeasures.set(TheDemo.TheMeasures.QEVAL_STATS_DB_TIME.measureName(), totalStats.getTime());
-			threadTime.stopChrono();
-			return Pair.of(totalStats, threadMeasures);
-		};
+		return statsList;
 	}
 
 	@Override
@@ -1026,17 +1915,78 @@ public final class DataAccess implements IDataAccess<Object, KVLabel>
 
 	@Override
 	public Stream<Object> executeNatives(Stream<Object> nativeQueries)
+	{
+		nbQueries     = new long[] { 0, 0 };
+		nativeQueries = dedupNatives(nativeQueries, q -> (Bson) q);
+
+		if (nbThreads > 1)
+			return executeParallel(batchIt(nativeQueries.map(q -> (Bson) q), queryBatchSize, nbQueries, false));
+		if (batchesInFlight > 0)
+			return executePipelined(batchIt(nativeQueries.map(q -> (Bson) q), queryBatchSize, nbQueries, false));
+
+		return batchIt(nativeQueries, queryBatchSize, nbQueries).flatMap(this::executeNative);
+	}
+
+	// ==========================================================================
+
+	@Override
+	public Stream<Object> aggregate(Stream<ITree<Object, KVLabel>> queries)
 	{
 		nbQueries = new long[] { 0, 0 };
-		var batch = batchIt(nativeQueries, queryBatchSize, nbQueries);
+		queries   = wrapQueries(queries);
 
-		return batch.flatMap(this::executeNative);
+		return batchQueries(queries).flatMap(this::aggregateBson);
 	}
 
+	/**
+	 * Run the batch inside an aggregation pipeline that counts its answers, in one record or by distinct record id.
+	 */
+	private Stream<Object> aggregateBson(List<Bson> queries)
+	{
+		var match = Aggregates.match(compileBatch(queries));
+
+		var pipeline = aggregateIds //
+			? List.of(match, Aggregates.group("$" + partitionID, Accumulators.sum("n", 1))) //
+			: List.of(match, Aggregates.count("n"));
+
+		var cursor = records.aggregate(pipeline);
+
+		if (dataBatchSize > 0)
+			cursor.batchSize(dataBatchSize);
+
+		return HelpStream.<Object>toStreamDownCast(cursor);
+	}
+
+	@Override
+	public aggregateStats aggregateStats(Object record)
+	{
+		var doc       = (BsonDocument) record;
+		var nbAnswers = doc.get("n").asNumber().longValue();
+		var id        = doc.get("_id");
+		var recordId  = null == id || !id.isNumber() ? OptionalLong.empty() : OptionalLong.of(id.asNumber().longValue());
+
+		return new aggregateStats()
+		{
+			@Override
+			public long getNbAnswers()
+			{
+				return nbAnswers;
+			}
+
+			@Override
+			public OptionalLong getRecordId()
+			{
+				return recordId;
+			}
+		};
+	}
+
+	// ==========================================================================
+
 	@Override
 	public long getRecordId(Object record)
 	{
-		return ((Document) record).getInteger(partitionID);
+		return ((BsonDocument) record).get(partitionID).asNumber().longValue();
 	}
 
 	@Override
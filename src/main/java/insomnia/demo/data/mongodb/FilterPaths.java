@@ -0,0 +1,145 @@
+package insomnia.demo.data.mongodb;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+
+/**
+ * The field paths tested by a query filter, as seen by the index selection of the server.
+ * A filter is split on its top-level $or into branches; the paths of a branch are the paths that every matching record must have a condition on.
+ */
+final class FilterPaths
+{
+	private FilterPaths()
+	{
+		throw new AssertionError();
+	}
+
+	// ==========================================================================
+
+	static List<Set<String>> branches(BsonDocument filter)
+	{
+		var shared = new HashSet<String>();
+		var ors    = new ArrayList<BsonDocument>();
+
+		for (var entry : filter.entrySet())
+		{
+			if ("$or".equals(entry.getKey()))
+				entry.getValue().asArray().forEach(v -> ors.add(v.asDocument()));
+			else
+				field(shared, "", entry.getKey(), entry.getValue());
+		}
+
+		if (ors.isEmpty())
+			return List.of(shared);
+
+		var ret = new ArrayList<Set<String>>();
+
+		for (var or : ors)
+		{
+			for (var branch : branches(or))
+			{
+				branch.addAll(shared);
+				ret.add(branch);
+			}
+		}
+		return ret;
+	}
+
+	// ==========================================================================
+
+	private static void conjunction(Set<String> paths, String prefix, BsonDocument doc)
+	{
+		for (var entry : doc.entrySet())
+			field(paths, prefix, entry.getKey(), entry.getValue());
+	}
+
+	private static void field(Set<String> paths, String prefix, String key, BsonValue value)
+	{
+		switch (key)
+		{
+		case "$and":
+			for (var v : value.asArray())
+				conjunction(paths, prefix, v.asDocument());
+			break;
+		case "$or":
+		{
+			// Only the paths common to all the alternatives are required
+			Set<String> common = null;
+
+			for (var v : value.asArray())
+			{
+				var alt = new HashSet<String>();
+				conjunction(alt, prefix, v.asDocument());
+
+				if (null == common)
+					common = alt;
+				else
+					common.retainAll(alt);
+			}
+			if (null != common)
+				paths.addAll(common);
+			break;
+		}
+		default:
+			// $nor, $expr, ...
+			if (key.charAt(0) == '$')
+				break;
+
+			condition(paths, prefix + key, value);
+		}
+	}
+
+	private static void condition(Set<String> paths, String path, BsonValue value)
+	{
+		if (!value.isDocument() || value.asDocument().isEmpty() || value.asDocument().getFirstKey().charAt(0) != '$')
+		{
+			paths.add(path);
+			return;
+		}
+
+		for (var op : value.asDocument().entrySet())
+		{
+			var opValue = op.getValue();
+
+			switch (op.getKey())
+			{
+			case "$elemMatch":
+				if (opValue.isDocument() && isFieldsDocument(opValue.asDocument()))
+					conjunction(paths, path + ".", opValue.asDocument());
+				else
+					paths.add(path);
+				break;
+			case "$exists":
+				if (opValue.isBoolean() && opValue.asBoolean().getValue())
+					paths.add(path);
+				break;
+			case "$not":
+			case "$ne":
+			case "$nin":
+				break;
+			default:
+				paths.add(path);
+			}
+		}
+	}
+
+	/**
+	 * @return true if the document is a filter on fields, false if it is a condition on a value
+	 */
+	private static boolean isFieldsDocument(BsonDocument doc)
+	{
+		for (var k : doc.keySet())
+		{
+			if (k.charAt(0) != '$')
+				return true;
+			if (!"$and".equals(k) && !"$or".equals(k) && !"$nor".equals(k))
+				return false;
+		}
+		return true;
+	}
+}
@@ -0,0 +1,192 @@
+package insomnia.demo.data.mongodb;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.bson.BsonDocument;
+
+import insomnia.demo.Measures;
+import insomnia.demo.data.Fingerprint;
+
+/**
+ * An on-disk cache of the results of native queries: a gzipped file of longs by query.
+ * A key is the fingerprint of the canonical query and of the state of the collection, so a modified collection does not hit old results.
+ * The least recently used files are deleted when the cache is bigger than its maximal size.
+ */
+final class ResultCache
+{
+	private static final String SUFFIX = ".gz";
+
+	private Path dir;
+
+	private long maxBytes, nbBytes;
+
+	private String collectionKey;
+
+	// Access ordered: the first file is the least recently used
+	private LinkedHashMap<String, Long> files = new LinkedHashMap<>(16, 0.75f, true);
+
+	private long hits[], misses[], evictions[];
+
+	private int hitPercent[];
+
+	/**
+	 * @param collectionKey a representation of the collection state
+	 */
+	ResultCache(Path dir, long maxBytes, String collectionKey, Measures measures)
+	{
+		this.dir           = dir;
+		this.maxBytes      = maxBytes;
+		this.collectionKey = collectionKey;
+		hits               = measures.getLongTab("cache", "hits");
+		misses             = measures.getLongTab("cache", "misses");
+		evictions          = measures.getLongTab("cache", "evictions");
+		hitPercent         = measures.getIntTab("cache", "hit.percent");
+
+		try
+		{
+			Files.createDirectories(dir);
+
+			try (var list = Files.list(dir))
+			{
+				// The modification time of a file is its last access
+				for (var file : list.filter(f -> f.toString().endsWith(SUFFIX)) //
+					.sorted(Comparator.comparing(ResultCache::lastModified)) //
+					.collect(Collectors.toList()))
+				{
+					var size = Files.size(file);
+					files.put(file.getFileName().toString(), size);
+					nbBytes += size;
+				}
+			}
+		}
+		catch (IOException e)
+		{
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private static FileTime lastModified(Path file)
+	{
+		try
+		{
+			return Files.getLastModifiedTime(file);
+		}
+		catch (IOException e)
+		{
+			return FileTime.fromMillis(0);
+		}
+	}
+
+	Fingerprint key(String kind, BsonDocument filter)
+	{
+		return Fingerprint.of(String.join("\n", kind, collectionKey, BsonCanonicals.canonicalJson(filter)));
+	}
+
+	// ==========================================================================
+
+	private synchronized boolean access(String name, boolean hit)
+	{
+		if (hit && null == files.get(name))
+			hit = false;
+
+		if (hit)
+			hits[0]++;
+		else
+			misses[0]++;
+
+		hitPercent[0] = (int) (100 * hits[0] / (hits[0] + misses[0]));
+		return hit;
+	}
+
+	Optional<long[]> get(Fingerprint key)
+	{
+		var name = key.toString() + SUFFIX;
+
+		if (!access(name, true))
+			return Optional.empty();
+
+		var file = dir.resolve(name);
+
+		try (var in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(Files.newInputStream(file)))))
+		{
+			var ret = new long[in.readInt()];
+
+			for (int i = 0; i < ret.length; i++)
+				ret[i] = in.readLong();
+
+			Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+			return Optional.of(ret);
+		}
+		// Evicted by another thread
+		catch (NoSuchFileException e)
+		{
+			return Optional.empty();
+		}
+		catch (IOException e)
+		{
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	void put(Fingerprint key, long[] values)
+	{
+		var name = key.toString() + SUFFIX;
+
+		try
+		{
+			var tmp = Files.createTempFile(dir, name, ".tmp");
+
+			try (var out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(Files.newOutputStream(tmp)))))
+			{
+				out.writeInt(values.length);
+
+				for (var v : values)
+					out.writeLong(v);
+			}
+			var size = Files.size(tmp);
+
+			synchronized (this)
+			{
+				Files.move(tmp, dir.resolve(name), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+				var old = files.put(name, size);
+				nbBytes += size - (null == old ? 0 : old);
+				evict();
+			}
+		}
+		catch (IOException e)
+		{
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private void evict() throws IOException
+	{
+		var it = files.entrySet().iterator();
+
+		while (nbBytes > maxBytes && it.hasNext())
+		{
+			var e = it.next();
+			Files.deleteIfExists(dir.resolve(e.getKey()));
+			nbBytes -= e.getValue();
+			evictions[0]++;
+			it.remove();
+		}
+	}
+}
@@ -0,0 +1,106 @@
+package insomnia.demo.data.mongodb;
+
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+import org.bson.BsonDocument;
+
+import insomnia.demo.Measures;
+import insomnia.summary.ISummary.NodeType;
+
+/**
+ * A bounded LRU cache of the BSON fragments built by the query2native translation.
+ * A fragment depends on the structure of the subtree, the position of the summary navigator and the node types of the subtree's root.
+ * The stored fragments are shared between queries and must never be modified.
+ */
+final class TranslationCache
+{
+	private static final class Key
+	{
+		private String subtree;
+
+		private Object position;
+
+		private EnumSet<NodeType> types;
+
+		private int hash;
+
+		private Key(String subtree, Object position, EnumSet<NodeType> types)
+		{
+			this.subtree  = subtree;
+			this.position = position;
+			this.types    = types;
+			hash          = Objects.hash(subtree, System.identityHashCode(position), types);
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj)
+		{
+			if (!(obj instanceof Key))
+				return false;
+
+			var k = (Key) obj;
+			return hash == k.hash && position == k.position && subtree.equals(k.subtree) && types.equals(k.types);
+		}
+	}
+
+	// ==========================================================================
+
+	private Map<Key, BsonDocument> cache;
+
+	private int hits[], misses[], evictions[];
+
+	TranslationCache(int maxSize, Measures measures)
+	{
+		var group = "toNative.cache";
+		hits      = measures.getIntTab(group, "hits");
+		misses    = measures.getIntTab(group, "misses");
+		evictions = measures.getIntTab(group, "evictions");
+		measures.set(group, "size.max", maxSize);
+
+		cache = new LinkedHashMap<>(Math.min(maxSize, 1 << 16), 0.75f, true)
+		{
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Key, BsonDocument> eldest)
+			{
+				if (size() <= maxSize)
+					return false;
+
+				evictions[0]++;
+				return true;
+			}
+		};
+	}
+
+	synchronized BsonDocument get(String subtree, Object position, EnumSet<NodeType> types)
+	{
+		var ret = cache.get(new Key(subtree, position, types));
+
+		if (null == ret)
+			misses[0]++;
+		else
+			hits[0]++;
+
+		return ret;
+	}
+
+	synchronized void put(String subtree, Object position, EnumSet<NodeType> types, BsonDocument fragment)
+	{
+		cache.put(new Key(subtree, position, EnumSet.copyOf(types)), fragment);
+	}
+
+	synchronized void clear()
+	{
+		cache.clear();
+	}
+}
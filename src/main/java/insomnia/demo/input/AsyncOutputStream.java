@@ -0,0 +1,264 @@
+package insomnia.demo.input;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+
+import insomnia.lib.cpu.CPUTimeBenchmark;
+import insomnia.lib.cpu.CPUTimeBenchmark.TIME;
+
+/**
+ * An output stream filling large buffers that a dedicated writer thread, shared by all the streams, writes to their files.
+ * The full buffers are sent to the writer through a bounded queue and each stream has a bounded number of buffers,
+ * so a producer faster than the disk blocks; the time it is blocked is added to a measure.
+ * The streams not closed are flushed when the JVM exits.
+ */
+public final class AsyncOutputStream extends OutputStream
+{
+	private static final int BUFFER_SIZE = 1 << 20, NB_BUFFERS = 2, QUEUE_SIZE = 16;
+
+	private static final class Chunk
+	{
+		AsyncOutputStream stream;
+
+		ByteBuffer buffer;
+
+		// Not null for the last chunk of a stream
+		CountDownLatch closed;
+
+		Chunk(AsyncOutputStream stream, ByteBuffer buffer, CountDownLatch closed)
+		{
+			this.stream = stream;
+			this.buffer = buffer;
+			this.closed = closed;
+		}
+	}
+
+	private static final BlockingQueue<Chunk> queue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+
+	private static final Set<AsyncOutputStream> openStreams = Collections.synchronizedSet(new HashSet<>());
+
+	static
+	{
+		var writer = new Thread(AsyncOutputStream::writeLoop, "output-writer");
+		writer.setDaemon(true);
+		writer.start();
+
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+			for (var stream : List.copyOf(openStreams))
+			{
+				try
+				{
+					stream.close();
+				}
+				catch (IOException e)
+				{
+					e.printStackTrace();
+				}
+			}
+		}));
+	}
+
+	private static void writeLoop()
+	{
+		while (true)
+		{
+			Chunk chunk;
+
+			try
+			{
+				chunk = queue.take();
+			}
+			catch (InterruptedException e)
+			{
+				return;
+			}
+			var stream = chunk.stream;
+
+			try
+			{
+				if (null == stream.error)
+				{
+					chunk.buffer.flip();
+
+					while (chunk.buffer.hasRemaining())
+						stream.channel.write(chunk.buffer);
+				}
+				if (null != chunk.closed)
+					stream.channel.close();
+			}
+			catch (IOException e)
+			{
+				stream.error = e;
+			}
+			chunk.buffer.clear();
+			stream.freeBuffers.add(chunk.buffer);
+
+			if (null != chunk.closed)
+				chunk.closed.countDown();
+		}
+	}
+
+	// ==========================================================================
+
+	private FileChannel channel;
+
+	private BlockingQueue<ByteBuffer> freeBuffers = new ArrayBlockingQueue<>(NB_BUFFERS);
+
+	private ByteBuffer buffer;
+
+	private CPUTimeBenchmark blocked;
+
+	private boolean isClosed;
+
+	// Set by the writer
+	private volatile IOException error;
+
+	/**
+	 * @param blocked the measure of the time blocked waiting for the writer
+	 * @param options the options of {@link java.nio.file.Files#newOutputStream(Path, OpenOption...)}
+	 */
+	public AsyncOutputStream(Path path, CPUTimeBenchmark blocked, OpenOption... options) throws IOException
+	{
+		var opts = new HashSet<OpenOption>(List.of(options));
+
+		if (opts.isEmpty())
+			opts.addAll(List.of(StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING));
+
+		opts.add(StandardOpenOption.WRITE);
+
+		this.channel = FileChannel.open(path, opts);
+		this.blocked = blocked;
+
+		for (int i = 1; i < NB_BUFFERS; i++)
+			freeBuffers.add(ByteBuffer.allocateDirect(BUFFER_SIZE));
+
+		buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+		openStreams.add(this);
+	}
+
+	private void checkError() throws IOException
+	{
+		if (null != error)
+			throw error;
+		if (isClosed)
+			throw new IOException("Stream closed");
+	}
+
+	private void addBlocked(long start)
+	{
+		var time = Duration.ofNanos(System.nanoTime() - start);
+
+		synchronized (blocked)
+		{
+			blocked.plus(time, EnumSet.of(TIME.REAL));
+		}
+	}
+
+	/**
+	 * Send the current buffer to the writer and take a free one.
+	 */
+	private void send(CountDownLatch closed) throws IOException
+	{
+		var start = System.nanoTime();
+
+		try
+		{
+			queue.put(new Chunk(this, buffer, closed));
+			buffer = null == closed ? freeBuffers.take() : null;
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		}
+		finally
+		{
+			addBlocked(start);
+		}
+	}
+
+	// ==========================================================================
+
+	@Override
+	public synchronized void write(int b) throws IOException
+	{
+		checkError();
+
+		if (!buffer.hasRemaining())
+			send(null);
+
+		buffer.put((byte) b);
+	}
+
+	@Override
+	public synchronized void write(byte[] b, int off, int len) throws IOException
+	{
+		checkError();
+
+		while (len > 0)
+		{
+			if (!buffer.hasRemaining())
+				send(null);
+
+			var n = Math.min(len, buffer.remaining());
+			buffer.put(b, off, n);
+			off += n;
+			len -= n;
+		}
+	}
+
+	/**
+	 * Send the buffered bytes to the writer, without waiting for them to be written.
+	 */
+	@Override
+	public synchronized void flush() throws IOException
+	{
+		checkError();
+
+		if (buffer.position() > 0)
+			send(null);
+	}
+
+	/**
+	 * Wait for all the bytes to be written.
+	 */
+	@Override
+	public synchronized void close() throws IOException
+	{
+		if (isClosed)
+			return;
+
+		isClosed = true;
+		openStreams.remove(this);
+
+		var closed = new CountDownLatch(1);
+		send(closed);
+
+		try
+		{
+			closed.await();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		}
+		if (null != error)
+			throw error;
+	}
+}
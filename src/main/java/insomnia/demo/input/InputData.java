@@ -22,6 +22,7 @@ import java.util.stream.Stream;
 
 import org.apache.commons.io.IOUtils;
 
+import insomnia.lib.cpu.CPUTimeBenchmark;
 import insomnia.lib.help.HelpFunctions;
 import insomnia.lib.help.HelpURI;
 import insomnia.lib.io.SequenceOutputStream;
@@ -113,6 +114,22 @@ public final class InputData
 		}
 	}
 
+	/**
+	 * @param blocked the measure of the time blocked waiting for the writer thread
+	 * @see AsyncOutputStream
+	 */
+	public static OutputStream fakeOpenAsyncOutputPath(Path path, CPUTimeBenchmark blocked, OpenOption... options)
+	{
+		try
+		{
+			return new AsyncOutputStream(path, blocked, options);
+		}
+		catch (IOException e)
+		{
+			return OutputStream.nullOutputStream();
+		}
+	}
+
 	public static OutputStream tryOpenOutputPath(Path path, OpenOption... options) throws IOException
 	{
 		return Files.newOutputStream(path, options);